@@ -5,11 +5,13 @@ public class MessageCounter {
 	public final String counterType;
 	private int totalCount;
 	private int successCount;
+	private int shedCount;
 
 	public MessageCounter(String counterType) {
 		this.counterType = counterType;
 		totalCount = 0;
 		successCount = 0;
+		shedCount = 0;
 	}
 	
 	public void incrementSuccess() {
@@ -20,6 +22,14 @@ public class MessageCounter {
 		totalCount++;
 	}
 	
+	public void addTotal(int count) {
+		totalCount += count;
+	}
+	
+	public void incrementShed() {
+		shedCount++;
+	}
+	
 	public int getSuccessCount() {
 		return successCount;
 	}
@@ -27,5 +37,9 @@ public class MessageCounter {
 	public int getTotalCount() {
 		return totalCount;
 	}
+	
+	public int getShedCount() {
+		return shedCount;
+	}
 
 }
@@ -62,22 +62,41 @@ public class MessageCounting {
 		messageCounter.incrementTotal();
 	}
 	
+	public static void addTotal(int index, int count) {
+		MessageCounter messageCounter = registry.get(index);
+		messageCounter.addTotal(count);
+	}
+	
+	public static void incrementShed(int index) {
+		MessageCounter messageCounter = registry.get(index);
+		messageCounter.incrementShed();
+	}
+	
 	public static void report() {
 		StringBuilder sb = new StringBuilder();
 		
 		int successCount = 0;
 		int totalCount = 0;
+		int shedCount = 0;
 		for( MessageCounter messageCounter : registry ) {
 			int sc = messageCounter.getSuccessCount();
 			int tc = messageCounter.getTotalCount();
-			sb.append(String.format("%s received %d messages, %d successful; ", messageCounter.counterType, tc, sc));
+			int dc = messageCounter.getShedCount();
+			if ( dc > 0 )
+				sb.append(String.format("%s received %d messages, %d successful, %d shed; ", messageCounter.counterType, tc, sc, dc));
+			else
+				sb.append(String.format("%s received %d messages, %d successful; ", messageCounter.counterType, tc, sc));
 			successCount += sc;
 			totalCount += tc;
+			shedCount += dc;
 		}
 		if ( totalCount > 0 ) {
 			long delta = System.currentTimeMillis() - startTime;
 			String deltaString = DurationFormatUtils.formatDuration(delta, "dd'd' HH'h' mm'm' ss.SS's'");
-			sb.append(String.format("In %s (%d ms) received total %d messages, %d successful.",  deltaString, delta, totalCount, successCount));
+			if ( shedCount > 0 )
+				sb.append(String.format("In %s (%d ms) received total %d messages, %d successful, %d shed under overload.",  deltaString, delta, totalCount, successCount, shedCount));
+			else
+				sb.append(String.format("In %s (%d ms) received total %d messages, %d successful.",  deltaString, delta, totalCount, successCount));
 		} else {
 			sb = new StringBuilder("Received 0 messages of any type");
 		}
@@ -0,0 +1,112 @@
+package gov.usdot.cv.session;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned reply certificates of off-heap sessions. Every distinct certificate and certID8 pair is kept
+ * once and referenced from session slots by an integer ID. Entries are reference counted and dropped
+ * when the last session that references them is freed. Registration and release are synchronized since
+ * they only happen when sessions are created and freed, lookups by ID are lock free.
+ */
+class CertificateRegistry {
+
+	static final int NONE = 0;
+
+	private static final class Entry {
+		final int id;
+		final byte[] certificate;
+		final byte[] certID8;
+		final int hashCode;
+		int references;
+
+		Entry(int id, byte[] certificate, byte[] certID8) {
+			this.id = id;
+			this.certificate = certificate;
+			this.certID8 = certID8;
+			this.hashCode = 31*Arrays.hashCode(certificate) + Arrays.hashCode(certID8);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if ( this == obj )
+				return true;
+			if ( !(obj instanceof Entry) )
+				return false;
+			final Entry other = (Entry)obj;
+			return hashCode == other.hashCode && Arrays.equals(certificate, other.certificate) && Arrays.equals(certID8, other.certID8);
+		}
+	}
+
+	private final Map<Entry, Entry> entries = new HashMap<Entry, Entry>();
+	private final ConcurrentHashMap<Integer, Entry> byID = new ConcurrentHashMap<Integer, Entry>();
+	private int nextID = NONE + 1;
+
+	/**
+	 * Registers a reference to the certificate and certID8 pair
+	 * @param certificate certificate to use for replies, may be null
+	 * @param certID8 digest of the certificate, may be null
+	 * @return ID of the pair or {@link #NONE} if both are null
+	 */
+	synchronized int register(byte[] certificate, byte[] certID8) {
+		if ( certificate == null && certID8 == null )
+			return NONE;
+		final Entry key = new Entry(NONE, certificate, certID8);
+		Entry entry = entries.get(key);
+		if ( entry == null ) {
+			int id;
+			do {
+				id = nextID++;
+			} while ( id == NONE || byID.containsKey(id) );
+			entry = new Entry(id, certificate != null ? certificate.clone() : null, certID8 != null ? certID8.clone() : null);
+			entries.put(entry, entry);
+			byID.put(id, entry);
+		}
+		entry.references++;
+		return entry.id;
+	}
+
+	/**
+	 * Releases a reference registered with {@link #register(byte[], byte[])}
+	 * @param id ID of the pair
+	 */
+	synchronized void release(int id) {
+		if ( id == NONE )
+			return;
+		final Entry entry = byID.get(id);
+		if ( entry != null && --entry.references <= 0 ) {
+			entries.remove(entry);
+			byID.remove(id);
+		}
+	}
+
+	byte[] getCertificate(int id) {
+		final Entry entry = id != NONE ? byID.get(id) : null;
+		return entry != null ? entry.certificate : null;
+	}
+
+	byte[] getCertID8(int id) {
+		final Entry entry = id != NONE ? byID.get(id) : null;
+		return entry != null ? entry.certID8 : null;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		byID.clear();
+	}
+
+	/**
+	 * @return number of distinct certificates
+	 */
+	int size() {
+		return byID.size();
+	}
+
+}
@@ -0,0 +1,78 @@
+package gov.usdot.cv.session;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Shared coarse grained time source. While the ticker is running, a single daemon thread reads the system
+ * clock once per resolution period and publishes the time in a volatile field, so code that needs the time
+ * for every message (session touch and expiry, cache expiration) reads a field instead of calling into the
+ * system clock. While the ticker is not running, the system clock is read directly.
+ */
+public final class CoarseClock {
+
+	private static final Logger log = Logger.getLogger(CoarseClock.class);
+
+	public static final int DEFAULT_RESOLUTION = 10;	// milliseconds
+
+	private static volatile long now = System.currentTimeMillis();
+	private static volatile Thread ticker = null;
+
+	private CoarseClock() {
+	}
+
+	/**
+	 * @return current time in milliseconds, at most one resolution period behind the system clock while the ticker is running
+	 */
+	public static long currentTimeMillis() {
+		return ticker != null ? now : System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts the ticker, restarting it if it is already running
+	 * @param resolution period in milliseconds at which the time is updated
+	 */
+	public static synchronized void start(final int resolution) {
+		stop();
+		if ( resolution <= 0 )
+			return;
+		now = System.currentTimeMillis();
+		Thread thread = new Thread(CoarseClock.class.getSimpleName()) {
+			@Override
+			public void run() {
+				while ( ticker == this ) {
+					now = System.currentTimeMillis();
+					try {
+						Thread.sleep(resolution);
+					} catch (InterruptedException ex) {
+						break;
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		ticker = thread;
+		thread.start();
+		log.debug(String.format("Started coarse clock with %d ms resolution", resolution));
+	}
+
+	/**
+	 * Stops the ticker, the system clock is read directly afterwards
+	 */
+	public static synchronized void stop() {
+		final Thread thread = ticker;
+		if ( thread == null )
+			return;
+		ticker = null;
+		thread.interrupt();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static boolean isRunning() {
+		return ticker != null;
+	}
+
+}
@@ -0,0 +1,740 @@
+package gov.usdot.cv.session;
+
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Session store that keeps sessions in fixed size slots in direct memory so millions of long lived sessions
+ * don't add to the garbage collected heap. A slot holds the fields that are fixed when the session is stored:
+ * the packed session key, the random part of the session ID, time to live and destination. The fields that
+ * change while the session lives (state and generation, last active time, record count, sequence ID bitmask
+ * and certificate) are kept in atomic arrays indexed by slot, which hold no references for the garbage collector
+ * to trace. Certificates are interned in a {@link CertificateRegistry} and referenced by ID.
+ * <p>
+ * Lookups return short lived {@link SlotSession} views. Views read the atomic arrays without locking and check
+ * the generation of the slot after every read, so views of a slot that has been freed and reused behave like
+ * closed sessions. The session ID encodes the slot and its generation, so lookups by ID need no index.
+ * The slots are split into segments, each with its own open addressing key index and lock, sized to the number
+ * of threads that use the store. The lock guards the key index and the allocation and freeing of slots. A freed
+ * slot is reused right away, so views check the generation and write to the slot under the lock as well, which
+ * is only taken when the write changes the slot. Closing a session is a compare-and-set of the state, which holds
+ * the generation.
+ * <p>
+ * Every segment expires its slots with a timer wheel like {@link SessionTimerWheel}. A slot is listed by slot and
+ * generation in the bucket of the tick at which it expires, and is moved to a later bucket when its bucket comes due
+ * and the session has been active since, so the cost of a tick is proportional to the number of sessions that come
+ * due rather than to the capacity. Closed sessions are freed on the next tick.
+ * <p>
+ * Sessions that don't fit, because the store is full or their key can't be packed, are kept in a heap
+ * {@link SessionStore} and found by key and ID like the other sessions. They are expired by the timer wheel
+ * of the session manager.
+ */
+class OffHeapSessionStore implements SessionTable {
+
+	private static final Logger log = Logger.getLogger(OffHeapSessionStore.class);
+
+	// slot layout
+	private static final int ADDRESS_HIGH   = 0;
+	private static final int ADDRESS_LOW    = 8;
+	private static final int DIALOG         = 16;
+	private static final int IDS            = 24;
+	private static final int KEY_FLAGS      = 32;
+	private static final int HASH           = 36;
+	private static final int ID_HIGH        = 40;	// random upper half of the session ID
+	private static final int TIME_TO_LIVE   = 48;
+	private static final int DEST_HIGH      = 56;
+	private static final int DEST_LOW       = 64;
+	private static final int DEST_FLAGS     = 72;
+	static final int SLOT_SIZE              = 80;
+
+	// slot state, the generation is kept above the flags
+	private static final int IN_USE = 1;
+	private static final int CLOSED = 2;
+	private static final int GENERATION_SHIFT = 2;
+
+	private static final int TOMBSTONE = -1;
+	private static final int MAX_SEGMENTS = 1024;
+	private static final int INITIAL_BUCKET_SIZE = 16;
+
+	private final Segment[] segments;
+	private final int segmentCapacity;
+	private final long tickDuration;
+	private final int wheelMask;
+	// locations (generation << 32 | index) of sessions that have been closed and are freed on the next tick
+	private final ConcurrentLinkedQueue<Long> closed = new ConcurrentLinkedQueue<Long>();
+	private final CertificateRegistry certificates = new CertificateRegistry();
+	private final SessionStore overflow;
+	private final AtomicLong overflowCount = new AtomicLong();
+
+	/**
+	 * Creates off-heap session store
+	 * @param capacity maximum number of sessions
+	 * @param concurrencyLevel expected number of threads that use the store concurrently, rounded up to a power of two
+	 * @param tickDuration duration of an expiration tick in milliseconds
+	 */
+	OffHeapSessionStore(int capacity, int concurrencyLevel, long tickDuration) {
+		int wheelSize = 1;
+		while ( wheelSize < SessionTimerWheel.DEFAULT_WHEEL_SIZE )
+			wheelSize <<= 1;
+		this.tickDuration = Math.max(tickDuration, 1);
+		this.wheelMask = wheelSize - 1;
+		int segmentCount = 1;
+		while ( segmentCount < concurrencyLevel && segmentCount < MAX_SEGMENTS && segmentCount < capacity )
+			segmentCount <<= 1;
+		this.segmentCapacity = Math.max((int)Math.min(((long)capacity + segmentCount - 1)/segmentCount, Integer.MAX_VALUE/SLOT_SIZE), 1);
+		this.segments = new Segment[segmentCount];
+		this.overflow = new SessionStore(SessionStore.DEFAULT_INITIAL_CAPACITY, concurrencyLevel);
+		for ( int i = 0; i < segmentCount; i++ )
+			segments[i] = new Segment(this, i*segmentCapacity, segmentCapacity, CoarseClock.currentTimeMillis() / this.tickDuration);
+	}
+
+	@Override
+	public Session get(PackedSessionKey sessionKey) {
+		final Segment segment = segmentFor(sessionKey.hashCode());
+		synchronized(segment) {
+			final int slot = segment.find(sessionKey);
+			if ( slot >= 0 )
+				return segment.view(slot);
+		}
+		return overflow.size() > 0 ? overflow.get(sessionKey) : null;
+	}
+
+	@Override
+	public Session get(String sessionID) {
+		if ( sessionID == null )
+			return null;
+		final Session session = getSlotSession(sessionID);
+		return session == null && overflow.size() > 0 ? overflow.get(sessionID) : session;
+	}
+
+	private Session getSlotSession(String sessionID) {
+		final UUID uuid;
+		try {
+			uuid = UUID.fromString(sessionID);
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+		final long location = uuid.getLeastSignificantBits();
+		final Segment segment = segmentAt((int)location);
+		if ( segment == null )
+			return null;
+		final int slot = (int)location - segment.base;
+		synchronized(segment) {
+			if ( !segment.isValid(slot, (int)(location >>> 32)) || segment.slots.getLong(slot*SLOT_SIZE + ID_HIGH) != uuid.getMostSignificantBits() )
+				return null;
+			return segment.view(slot);
+		}
+	}
+
+	@Override
+	public Session add(Session session) {
+		if ( session instanceof SlotSession && ((SlotSession)session).segment.store == this )
+			return session;
+		final SessionKey sessionKey = session.getSessionKey();
+		if ( !sessionKey.isPacked() || (sessionKey.source != null && sessionKey.source.address == null) )
+			return overflow(session);
+		final Segment segment = segmentFor(sessionKey.hashCode());
+		synchronized(segment) {
+			final int existing = segment.find(sessionKey);
+			if ( existing >= 0 )
+				segment.free(existing);
+			final int slot = segment.allocate(sessionKey, session);
+			if ( slot < 0 )
+				return overflow(session);
+			// a session with the same key that was kept on the heap is replaced as well
+			if ( overflow.size() > 0 ) {
+				final Session replaced = overflow.get(sessionKey);
+				if ( replaced != null && overflow.remove(replaced) )
+					replaced.close();
+			}
+			return segment.view(slot);
+		}
+	}
+
+	private Session overflow(Session session) {
+		if ( overflowCount.getAndIncrement() == 0 )
+			log.warn(String.format("Off-heap session store can't hold session %s, keeping it on the heap: %s", session.getSessionKey(), this));
+		return overflow.add(session);
+	}
+
+	@Override
+	public boolean remove(Session session) {
+		if ( !(session instanceof SlotSession) )
+			return overflow.remove(session);
+		final SlotSession view = (SlotSession)session;
+		if ( view.segment.store != this )
+			return false;
+		synchronized(view.segment) {
+			if ( !view.segment.isValid(view.slot, view.generation) )
+				return false;
+			view.segment.free(view.slot);
+			return true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		for ( Segment segment : segments ) {
+			synchronized(segment) {
+				for ( int slot = 0; slot < segment.capacity; slot++ )
+					if ( (segment.states.get(slot) & IN_USE) != 0 )
+						segment.free(slot);
+				Arrays.fill(segment.bucketSizes, 0);
+			}
+		}
+		closed.clear();
+		overflow.clear();
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for ( Segment segment : segments )
+			size += segment.size;
+		return size + overflow.size();
+	}
+
+	@Override
+	public Collection<Session> values() {
+		List<Session> values = new ArrayList<Session>();
+		for ( Segment segment : segments ) {
+			synchronized(segment) {
+				for ( int slot = 0; slot < segment.capacity; slot++ )
+					if ( (segment.states.get(slot) & IN_USE) != 0 )
+						values.add(segment.view(slot));
+			}
+		}
+		values.addAll(overflow.values());
+		return values;
+	}
+
+	/**
+	 * Frees the slots of closed sessions and of the sessions that expired in the ticks that have passed.
+	 * The segment locks are held for one tick at a time.
+	 * @param now current time in milliseconds
+	 * @return number of sessions freed
+	 */
+	int expire(long now) {
+		int freed = 0;
+		Long location;
+		while ( (location = closed.poll()) != null ) {
+			final Segment segment = segmentAt((int)location.longValue());
+			final int slot = (int)location.longValue() - segment.base;
+			synchronized(segment) {
+				if ( segment.isValid(slot, (int)(location >>> 32)) && (segment.states.get(slot) & CLOSED) != 0 ) {
+					segment.purge(slot);
+					freed++;
+				}
+			}
+		}
+		final long currentTick = now / tickDuration;
+		for ( Segment segment : segments ) {
+			for ( ; ; ) {
+				synchronized(segment) {
+					if ( segment.nextTick > currentTick )
+						break;
+					freed += segment.expireNextTick(now);
+				}
+			}
+		}
+		return freed;
+	}
+
+	int getCapacity() {
+		return segments.length*segmentCapacity;
+	}
+
+	int getCertificateCount() {
+		return certificates.size();
+	}
+
+	/**
+	 * @return number of sessions that have been kept on the heap because they didn't fit into the store
+	 */
+	long getOverflowCount() {
+		return overflowCount.get();
+	}
+
+	private Segment segmentAt(int index) {
+		return index >= 0 && index < segments.length*segmentCapacity ? segments[index/segmentCapacity] : null;
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[(int)(((spread(hash) & 0xffffffffL) * segments.length) >>> 32)];
+	}
+
+	private static int spread(int hash) {
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+
+	private static long packAddress(byte[] address, int from) {
+		long packed = 0;
+		for ( int i = from; i < Math.min(address.length, from + 8); i++ )
+			packed |= (address[i] & 0xffL) << (56 - 8*(i - from));
+		return packed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { segments = %d; capacity = %d; size = %d; on heap = %d; certificates = %d; overflowCount = %d }",
+				getClass().getSimpleName(), segments.length, getCapacity(), size(), overflow.size(), certificates.size(), overflowCount.get());
+	}
+
+	/**
+	 * Slots of a segment. The key index and the free list are guarded by the segment lock.
+	 */
+	private static final class Segment {
+
+		final OffHeapSessionStore store;
+		final ByteBuffer slots;
+		final AtomicIntegerArray states;		// generation << GENERATION_SHIFT | CLOSED | IN_USE
+		final AtomicLongArray lastActive;
+		final AtomicLongArray seqIDs;
+		final AtomicIntegerArray counts;
+		final AtomicIntegerArray certificateIDs;
+		final int base;			// global index of the first slot, encoded into session IDs
+		final int capacity;
+		final int[] free;
+		int freeCount;
+		int[] index;			// slot + 1, 0 - empty, TOMBSTONE - removed
+		int tombstones;
+		volatile int size;
+		final long[][] buckets;			// generation << 32 | slot of the slots that expire in the tick of the bucket
+		final int[] bucketSizes;
+		long nextTick;
+
+		Segment(OffHeapSessionStore store, int base, int capacity, long nextTick) {
+			this.store = store;
+			this.base = base;
+			this.capacity = capacity;
+			this.buckets = new long[store.wheelMask + 1][];
+			this.bucketSizes = new int[store.wheelMask + 1];
+			this.nextTick = nextTick;
+			this.slots = ByteBuffer.allocateDirect(capacity*SLOT_SIZE).order(ByteOrder.nativeOrder());
+			this.states = new AtomicIntegerArray(capacity);
+			this.lastActive = new AtomicLongArray(capacity);
+			this.seqIDs = new AtomicLongArray(capacity);
+			this.counts = new AtomicIntegerArray(capacity);
+			this.certificateIDs = new AtomicIntegerArray(capacity);
+			this.free = new int[capacity];
+			for ( int i = 0; i < capacity; i++ )
+				free[i] = capacity - 1 - i;
+			this.freeCount = capacity;
+			int length = 2;
+			// the index is kept at most half full
+			while ( length < 2*capacity && length < (1 << 30) )
+				length <<= 1;
+			this.index = new int[length];
+		}
+
+		boolean isValid(int slot, int generation) {
+			return slot >= 0 && slot < capacity && isLive(states.get(slot), generation);
+		}
+
+		static boolean isLive(int state, int generation) {
+			return (state & ~CLOSED) == (generation << GENERATION_SHIFT | IN_USE);
+		}
+
+		SlotSession view(int slot) {
+			return new SlotSession(this, slot);
+		}
+
+		int find(PackedSessionKey key) {
+			final int mask = index.length - 1;
+			for ( int i = spread(key.hash) & mask; ; i = (i + 1) & mask ) {
+				final int entry = index[i];
+				if ( entry == 0 )
+					return -1;
+				if ( entry > 0 && matches(entry - 1, key) )
+					return entry - 1;
+			}
+		}
+
+		private boolean matches(int slot, PackedSessionKey key) {
+			final int offset = slot*SLOT_SIZE;
+			return slots.getInt(offset + HASH) == key.hash &&
+				   slots.getLong(offset + ADDRESS_LOW) == key.addressLow && slots.getLong(offset + ADDRESS_HIGH) == key.addressHigh &&
+				   slots.getLong(offset + IDS) == key.ids && slots.getLong(offset + DIALOG) == key.dialog &&
+				   slots.getInt(offset + KEY_FLAGS) == key.flags;
+		}
+
+		int allocate(PackedSessionKey key, Session session) {
+			if ( freeCount == 0 )
+				return -1;
+			if ( (size + tombstones + 1)*4L > index.length*3L )
+				rebuildIndex();
+			final int slot = free[--freeCount];
+			final int offset = slot*SLOT_SIZE;
+			slots.putLong(offset + ADDRESS_HIGH, key.addressHigh);
+			slots.putLong(offset + ADDRESS_LOW, key.addressLow);
+			slots.putLong(offset + DIALOG, key.dialog);
+			slots.putLong(offset + IDS, key.ids);
+			slots.putInt(offset + KEY_FLAGS, key.flags);
+			slots.putInt(offset + HASH, key.hash);
+			slots.putLong(offset + ID_HIGH, ThreadLocalRandom.current().nextLong());
+			slots.putLong(offset + TIME_TO_LIVE, session.getMaxIdleTimeToLive());
+			setDestination(slot, session.getDestination());
+			lastActive.set(slot, session.getLastActiveTime());
+			seqIDs.set(slot, session.getSeqIDs());
+			counts.set(slot, session.getCount());
+			certificateIDs.set(slot, store.certificates.register(session.getCertificate(), session.getCertID8()));
+			// publishes the slot, views read the state before the other fields
+			states.set(slot, (states.get(slot) & ~(CLOSED | IN_USE)) | IN_USE | (session.isClosed() ? CLOSED : 0));
+			insert(slot, key.hash);
+			schedule(slot, Math.max(getExpirationTick(slot), nextTick));
+			size++;
+			return slot;
+		}
+
+		private long getExpirationTick(int slot) {
+			final long lastActive = this.lastActive.get(slot);
+			final long expirationTime = lastActive + slots.getLong(slot*SLOT_SIZE + TIME_TO_LIVE);
+			return (expirationTime < lastActive ? Long.MAX_VALUE : expirationTime) / store.tickDuration;
+		}
+
+		private void schedule(int slot, long tick) {
+			final int bucket = (int)tick & store.wheelMask;
+			long[] entries = buckets[bucket];
+			if ( entries == null )
+				entries = buckets[bucket] = new long[INITIAL_BUCKET_SIZE];
+			else if ( bucketSizes[bucket] == entries.length )
+				entries = buckets[bucket] = Arrays.copyOf(entries, 2*entries.length);
+			entries[bucketSizes[bucket]++] = ((long)(states.get(slot) >>> GENERATION_SHIFT) << 32) | slot;
+		}
+
+		/**
+		 * Frees the expired and closed sessions listed in the bucket of the next tick and moves
+		 * the sessions that have been active since they were scheduled to the buckets of their new expiration ticks
+		 * @param now current time in milliseconds
+		 * @return number of sessions freed
+		 */
+		int expireNextTick(long now) {
+			final int bucket = (int)nextTick & store.wheelMask;
+			final long[] entries = buckets[bucket];
+			final int count = bucketSizes[bucket];
+			int kept = 0;
+			int freed = 0;
+			for ( int i = 0; i < count; i++ ) {
+				final long entry = entries[i];
+				final int slot = (int)entry;
+				// slots that have been freed since they were scheduled are dropped from the wheel
+				if ( !isValid(slot, (int)(entry >>> 32)) )
+					continue;
+				if ( (states.get(slot) & CLOSED) != 0 || now - lastActive.get(slot) > slots.getLong(slot*SLOT_SIZE + TIME_TO_LIVE) ) {
+					purge(slot);
+					freed++;
+					continue;
+				}
+				final long tick = Math.max(getExpirationTick(slot), nextTick + 1);
+				// sessions that are due a later round stay in the same bucket
+				if ( ((int)tick & store.wheelMask) == bucket )
+					entries[kept++] = entry;
+				else
+					schedule(slot, tick);
+			}
+			bucketSizes[bucket] = kept;
+			nextTick++;
+			return freed;
+		}
+
+		void purge(int slot) {
+			if ( log.isDebugEnabled() )
+				log.debug(String.format("Purging session with key: %s", view(slot).getSessionKey()));
+			free(slot);
+		}
+
+		void free(int slot) {
+			remove(slot);
+			// views of the freed slot see a different generation and behave like closed sessions
+			states.set(slot, ((states.get(slot) >>> GENERATION_SHIFT) + 1) << GENERATION_SHIFT);
+			store.certificates.release(certificateIDs.getAndSet(slot, CertificateRegistry.NONE));
+			free[freeCount++] = slot;
+			size--;
+		}
+
+		private void insert(int slot, int hash) {
+			final int mask = index.length - 1;
+			for ( int i = spread(hash) & mask; ; i = (i + 1) & mask ) {
+				if ( index[i] <= 0 ) {
+					if ( index[i] == TOMBSTONE )
+						tombstones--;
+					index[i] = slot + 1;
+					return;
+				}
+			}
+		}
+
+		private void remove(int slot) {
+			final int mask = index.length - 1;
+			for ( int i = spread(slots.getInt(slot*SLOT_SIZE + HASH)) & mask; index[i] != 0; i = (i + 1) & mask ) {
+				if ( index[i] == slot + 1 ) {
+					index[i] = TOMBSTONE;
+					tombstones++;
+					return;
+				}
+			}
+		}
+
+		private void rebuildIndex() {
+			index = new int[index.length];
+			tombstones = 0;
+			for ( int slot = 0; slot < capacity; slot++ )
+				if ( (states.get(slot) & IN_USE) != 0 )
+					insert(slot, slots.getInt(slot*SLOT_SIZE + HASH));
+		}
+
+		void setDestination(int slot, InetPoint destination) {
+			final int offset = slot*SLOT_SIZE;
+			if ( destination == null || destination.address == null || destination.address.length > PackedSessionKey.MAX_PACKED_ADDRESS_LENGTH ) {
+				slots.putInt(offset + DEST_FLAGS, PackedSessionKey.NO_SOURCE_FLAG);
+				return;
+			}
+			slots.putLong(offset + DEST_HIGH, packAddress(destination.address, 0));
+			slots.putLong(offset + DEST_LOW, packAddress(destination.address, 8));
+			slots.putInt(offset + DEST_FLAGS, (destination.port & PackedSessionKey.PORT_MASK) |
+					(destination.forward ? PackedSessionKey.FORWARD_FLAG : 0) | (destination.address.length << PackedSessionKey.LENGTH_SHIFT));
+		}
+
+		InetPoint getDestination(int slot) {
+			final int offset = slot*SLOT_SIZE;
+			return PackedSessionKey.unpackSource(slots.getLong(offset + DEST_HIGH), slots.getLong(offset + DEST_LOW), slots.getInt(offset + DEST_FLAGS));
+		}
+
+	}
+
+	/**
+	 * View of a session slot. Views are created for every lookup and are cheap to throw away.
+	 * A view of a slot that has since been freed behaves like a closed session.
+	 */
+	static final class SlotSession extends Session {
+
+		private final Segment segment;
+		private final int slot;
+		private final int generation;
+		private final long idHigh;
+		private final long addressHigh;
+		private final long addressLow;
+		private final long dialog;
+		private final long ids;
+		private final int keyFlags;
+		private final long maxIdleTimeToLive;
+		private SessionKey sessionKey;
+		private String sessionID;
+
+		// created under the segment lock, the key fields of a slot don't change while it is in use
+		private SlotSession(Segment segment, int slot) {
+			final int offset = slot*SLOT_SIZE;
+			final ByteBuffer slots = segment.slots;
+			this.segment = segment;
+			this.slot = slot;
+			this.generation = segment.states.get(slot) >>> GENERATION_SHIFT;
+			this.idHigh = slots.getLong(offset + ID_HIGH);
+			this.addressHigh = slots.getLong(offset + ADDRESS_HIGH);
+			this.addressLow = slots.getLong(offset + ADDRESS_LOW);
+			this.dialog = slots.getLong(offset + DIALOG);
+			this.ids = slots.getLong(offset + IDS);
+			this.keyFlags = slots.getInt(offset + KEY_FLAGS);
+			this.maxIdleTimeToLive = slots.getLong(offset + TIME_TO_LIVE);
+		}
+
+		@Override
+		public String getSessionID() {
+			if ( sessionID == null )
+				sessionID = new UUID(idHigh, ((long)generation << 32) | (segment.base + slot)).toString();
+			return sessionID;
+		}
+
+		@Override
+		public SessionKey getSessionKey() {
+			if ( sessionKey == null )
+				sessionKey = new SessionKey(PackedSessionKey.unpackSource(addressHigh, addressLow, keyFlags), dialog,
+						(int)(ids >>> 32), (int)ids, (keyFlags & PackedSessionKey.META_FLAG) != 0);
+			return sessionKey;
+		}
+
+		@Override
+		public void touch() {
+			final long now = CoarseClock.currentTimeMillis();
+			// the coarse clock changes rarely compared to the message rate so most touches don't need the lock
+			if ( segment.lastActive.get(slot) == now )
+				return;
+			synchronized(segment) {
+				if ( segment.isValid(slot, generation) )
+					segment.lastActive.set(slot, now);
+			}
+		}
+
+		@Override
+		public boolean isExpired() {
+			final long now = CoarseClock.currentTimeMillis();
+			final long lastActive = segment.lastActive.get(slot);
+			return segment.isValid(slot, generation) && now - lastActive > maxIdleTimeToLive;
+		}
+
+		@Override
+		long getLastActiveTime() {
+			final long lastActive = segment.lastActive.get(slot);
+			return segment.isValid(slot, generation) ? lastActive : 0;
+		}
+
+		@Override
+		long getMaxIdleTimeToLive() {
+			return maxIdleTimeToLive;
+		}
+
+		@Override
+		public boolean isClosed() {
+			final int state = segment.states.get(slot);
+			return !Segment.isLive(state, generation) || (state & CLOSED) != 0;
+		}
+
+		@Override
+		public void close() {
+			int state;
+			do {
+				state = segment.states.get(slot);
+				if ( !Segment.isLive(state, generation) || (state & CLOSED) != 0 )
+					return;
+			} while ( !segment.states.compareAndSet(slot, state, state | CLOSED) );
+			// let the next tick free the slot instead of when the session would have expired
+			segment.store.closed.add(((long)generation << 32) | (segment.base + slot));
+		}
+
+		@Override
+		long getSeqIDs() {
+			final long seqIDs = segment.seqIDs.get(slot);
+			return segment.isValid(slot, generation) ? seqIDs : 0;
+		}
+
+		@Override
+		void addSeqIDs(long bits) {
+			// every sequence ID is added once per dialog so most additions find it already set
+			if ( (segment.seqIDs.get(slot) & bits) == bits )
+				return;
+			synchronized(segment) {
+				if ( segment.isValid(slot, generation) )
+					segment.seqIDs.set(slot, segment.seqIDs.get(slot) | bits);
+			}
+		}
+
+		@Override
+		public void incrementCount() {
+			synchronized(segment) {
+				if ( segment.isValid(slot, generation) )
+					segment.counts.incrementAndGet(slot);
+			}
+		}
+
+		@Override
+		public void resetCount() {
+			synchronized(segment) {
+				if ( segment.isValid(slot, generation) )
+					segment.counts.set(slot, 0);
+			}
+		}
+
+		@Override
+		public int getCount() {
+			final int count = segment.counts.get(slot);
+			return segment.isValid(slot, generation) ? count : 0;
+		}
+
+		@Override
+		public InetPoint getDestination() {
+			// the destination is written before the slot state is published, so it is read between two state checks
+			if ( !segment.isValid(slot, generation) )
+				return null;
+			final InetPoint destination = segment.getDestination(slot);
+			return segment.isValid(slot, generation) ? destination : null;
+		}
+
+		@Override
+		public void setDestination(InetPoint destination) {
+			// sessions get their destination before they are stored, so this is not on the message path
+			synchronized(segment) {
+				if ( segment.isValid(slot, generation) )
+					segment.setDestination(slot, destination);
+			}
+		}
+
+		@Override
+		public byte[] getCertificate() {
+			return segment.store.certificates.getCertificate(getCertificateID());
+		}
+
+		@Override
+		public void setCertificate(byte[] certificate) {
+			setCertificate(certificate, getCertID8());
+		}
+
+		@Override
+		public byte[] getCertID8() {
+			return segment.store.certificates.getCertID8(getCertificateID());
+		}
+
+		@Override
+		public void setCertID8(byte[] certID8) {
+			setCertificate(getCertificate(), certID8);
+		}
+
+		private int getCertificateID() {
+			final int certificateID = segment.certificateIDs.get(slot);
+			return segment.isValid(slot, generation) ? certificateID : CertificateRegistry.NONE;
+		}
+
+		private void setCertificate(byte[] certificate, byte[] certID8) {
+			final CertificateRegistry certificates = segment.store.certificates;
+			synchronized(segment) {
+				if ( segment.isValid(slot, generation) )
+					certificates.release(segment.certificateIDs.getAndSet(slot, certificates.register(certificate, certID8)));
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if ( this == obj )
+				return true;
+			if ( !(obj instanceof SlotSession) )
+				return false;
+			final SlotSession other = (SlotSession)obj;
+			return segment == other.segment && slot == other.slot && generation == other.generation;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31*(segment.base + slot) + generation;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s { source = %s; sessionID = %s; count = %d; lastActiveTime = %d (TTL: %d); seqIDs = 0x%x; closed = %s }",
+					getClass().getSimpleName(),
+					getSessionKey(),
+					getSessionID(),
+					getCount(),
+					getLastActiveTime(), maxIdleTimeToLive - (CoarseClock.currentTimeMillis() - getLastActiveTime()),
+					getSeqIDs(),
+					isClosed() ? "true" : "false"
+					);
+		}
+
+	}
+
+}
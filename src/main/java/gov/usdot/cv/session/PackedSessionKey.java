@@ -0,0 +1,117 @@
+package gov.usdot.cv.session;
+
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.util.Arrays;
+
+/**
+ * Session key fields packed into primitives so the key can be hashed and compared without boxing
+ * or walking arrays. IPv4 and IPv6 addresses are packed into two longs. Equality and hash code are
+ * defined here for all subclasses so an immutable {@link SessionKey} stored in the session map and a
+ * reusable {@link SessionKeyProbe} used for lookups are interchangeable.
+ */
+public abstract class PackedSessionKey {
+
+	static final int MAX_PACKED_ADDRESS_LENGTH = 16;
+
+	static final int PORT_MASK      = 0xffff;
+	static final int FORWARD_FLAG   = 1 << 16;
+	static final int META_FLAG      = 1 << 17;
+	static final int NO_SOURCE_FLAG = 1 << 18;
+	static final int LENGTH_SHIFT   = 19;
+	static final int NULL_ADDRESS   = 0x1f;	// address length code of a null address
+
+	long addressHigh;
+	long addressLow;
+	long dialog;
+	long ids;		// group ID in the upper and request ID in the lower 32 bits
+	int flags;		// port, forward, meta session and no source flags and address length
+	byte[] longAddress;	// only kept for addresses that do not fit into two longs
+	int hash;
+
+	PackedSessionKey() {
+	}
+
+	final void pack(boolean hasSource, byte[] address, int port, boolean forward, long dialogID, int groupID, int requestID, boolean isMetaSession) {
+		long high = 0, low = 0;
+		int length = NULL_ADDRESS;
+		byte[] unpacked = null;
+		if ( hasSource && address != null ) {
+			length = address.length;
+			if ( length <= MAX_PACKED_ADDRESS_LENGTH ) {
+				for ( int i = 0; i < length; i++ ) {
+					if ( i < 8 )
+						high |= (address[i] & 0xffL) << (56 - 8*i);
+					else
+						low |= (address[i] & 0xffL) << (56 - 8*(i - 8));
+				}
+			} else {
+				length = MAX_PACKED_ADDRESS_LENGTH + 1;
+				unpacked = address;
+			}
+		}
+		int packedFlags = isMetaSession ? META_FLAG : 0;
+		if ( hasSource )
+			packedFlags |= (port & PORT_MASK) | (forward ? FORWARD_FLAG : 0) | (length << LENGTH_SHIFT);
+		else
+			packedFlags |= NO_SOURCE_FLAG;
+		addressHigh = high;
+		addressLow = low;
+		dialog = dialogID;
+		ids = ((long)groupID << 32) | (requestID & 0xffffffffL);
+		flags = packedFlags;
+		longAddress = unpacked;
+		hash = mix(high, low, dialogID, ids, packedFlags);
+	}
+
+	/**
+	 * @return true if the source address is packed into two longs so the key can be restored from its packed fields
+	 */
+	final boolean isPacked() {
+		return longAddress == null;
+	}
+
+	/**
+	 * Restores the source of a key from its packed fields
+	 * @return source or null if the key has no source
+	 */
+	static InetPoint unpackSource(long high, long low, int flags) {
+		if ( (flags & NO_SOURCE_FLAG) != 0 )
+			return null;
+		final int length = (flags >>> LENGTH_SHIFT) & NULL_ADDRESS;
+		byte[] address = null;
+		if ( length != NULL_ADDRESS ) {
+			address = new byte[length];
+			for ( int i = 0; i < length; i++ )
+				address[i] = (byte)(i < 8 ? high >>> (56 - 8*i) : low >>> (56 - 8*(i - 8)));
+		}
+		return new InetPoint(address, flags & PORT_MASK, (flags & FORWARD_FLAG) != 0);
+	}
+
+	private static int mix(long high, long low, long dialog, long ids, int flags) {
+		long h = high * 0x9e3779b97f4a7c15L;
+		h = (h ^ low) * 0x9e3779b97f4a7c15L;
+		h = (h ^ dialog) * 0x9e3779b97f4a7c15L;
+		h = (h ^ ids) * 0x9e3779b97f4a7c15L;
+		h = (h ^ flags) * 0x9e3779b97f4a7c15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	@Override
+	public final int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public final boolean equals(Object obj) {
+		if ( this == obj )
+			return true;
+		if ( !(obj instanceof PackedSessionKey) )
+			return false;
+		final PackedSessionKey other = (PackedSessionKey)obj;
+		return hash == other.hash && addressLow == other.addressLow && addressHigh == other.addressHigh &&
+			   ids == other.ids && dialog == other.dialog && flags == other.flags &&
+			   (longAddress == null || Arrays.equals(longAddress, other.longAddress));
+	}
+
+}
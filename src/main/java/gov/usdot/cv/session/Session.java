@@ -3,11 +3,9 @@ package gov.usdot.cv.session;
 import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
 import gov.usdot.cv.common.inet.InetPoint;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.apache.log4j.Logger;
 
@@ -15,18 +13,24 @@ public class Session {
 	
 	protected static final Logger log = Logger.getLogger(Session.class);
 	
+	private static final AtomicIntegerFieldUpdater<Session> countUpdater = AtomicIntegerFieldUpdater.newUpdater(Session.class, "count");
+	private static final AtomicLongFieldUpdater<Session> seqIDsUpdater = AtomicLongFieldUpdater.newUpdater(Session.class, "seqIDs");
+	
 	private final SessionKey sessionKey;
 	private final String sessionID;
 	private final long maxIdleTimeToLive;
-	private long lastActiveTime;
-	private boolean closed = false;
-	private AtomicInteger count = new AtomicInteger(0);
+	private volatile long lastActiveTime;
+	private volatile boolean closed = false;
+	private volatile int count = 0;
+	
+	private volatile InetPoint destination = null;
+	private volatile byte[] certificate = null;
+	private volatile byte[] certID8 = null;
 	
-	private InetPoint destination = null;
-	private byte[] certificate = null;
-	private byte[] certID8 = null;
+	private volatile SessionTimerWheel timerWheel = null;
 
-	List<SemiSequenceID> seqIDs = Collections.synchronizedList(new ArrayList<SemiSequenceID>());
+	// sequence IDs seen in this session, one bit per sequence ID value
+	private volatile long seqIDs = 0;
 	
 	public Session(SessionKey sessionKey) {
 		this(sessionKey, Long.MAX_VALUE);
@@ -39,35 +43,87 @@ public class Session {
 		touch();
 	}
 	
-	public final String getSessionID() {
+	/**
+	 * Creates session whose state is kept elsewhere, see {@link OffHeapSessionStore}
+	 */
+	Session() {
+		this.sessionKey = null;
+		this.sessionID = null;
+		this.maxIdleTimeToLive = 0;
+	}
+	
+	public String getSessionID() {
 		return sessionID;
 	}
 	
-	public final SessionKey getSessionKey() {
+	public SessionKey getSessionKey() {
 		return sessionKey;
 	}
 	
 	public void touch() {
-		this.lastActiveTime = System.currentTimeMillis();
+		final long now = CoarseClock.currentTimeMillis();
+		// the coarse clock changes rarely compared to the message rate so most touches don't need to write
+		if ( now != lastActiveTime )
+			this.lastActiveTime = now;
 	}
 	
-	public synchronized boolean isInactive() {
+	public boolean isInactive() {
 		return isClosed() || isExpired();
 	}
 	
 	public boolean isExpired() {
-		return System.currentTimeMillis() - lastActiveTime > maxIdleTimeToLive;
+		return CoarseClock.currentTimeMillis() - lastActiveTime > maxIdleTimeToLive;
+	}
+	
+	long getLastActiveTime() {
+		return lastActiveTime;
+	}
+	
+	long getMaxIdleTimeToLive() {
+		return maxIdleTimeToLive;
+	}
+	
+	long getExpirationTime() {
+		final long expirationTime = lastActiveTime + maxIdleTimeToLive;
+		return expirationTime < lastActiveTime ? Long.MAX_VALUE : expirationTime;
+	}
+	
+	void setTimerWheel(SessionTimerWheel timerWheel) {
+		this.timerWheel = timerWheel;
 	}
 	
 	public void putSeqID(SemiSequenceID seqID) {
 		touch();
-		seqIDs.add(seqID);
+		addSeqIDs(seqIDBit(seqID));
 		if ( !isInactive() && seqID == SemiSequenceID.accept )
 			SessionReceiptReceiver.wakeUpWorker();
 	}
 	
 	public boolean hasSeqID(SemiSequenceID seqID) {
-		return seqIDs.contains(seqID);
+		final long bit = seqIDBit(seqID);
+		return bit != 0 && (getSeqIDs() & bit) == bit;
+	}
+	
+	/**
+	 * @return bitmask of the sequence IDs seen in this session
+	 */
+	long getSeqIDs() {
+		return seqIDs;
+	}
+	
+	void addSeqIDs(long bits) {
+		long seen;
+		do {
+			seen = seqIDs;
+		} while ( (seen & bits) != bits && !seqIDsUpdater.compareAndSet(this, seen, seen | bits) );
+	}
+	
+	private static long seqIDBit(SemiSequenceID seqID) {
+		if ( seqID == null )
+			return 0;
+		final long value = seqID.longValue();
+		// sequence IDs are a small enumeration so they all fit into one long
+		return value >= 0 && value < Long.SIZE ? 1L << value : 0;
 	}
 	
 	public boolean isClosed() {
@@ -76,18 +132,22 @@ public class Session {
 
 	public void close() {
 		closed = true;
+		// let the timer wheel purge the session on the next tick instead of when it would have expired
+		final SessionTimerWheel timerWheel = this.timerWheel;
+		if ( timerWheel != null )
+			timerWheel.expire(this);
 	}
 	
 	public void incrementCount() {
-		count.incrementAndGet();
+		countUpdater.incrementAndGet(this);
 	}
 	
 	public void resetCount() {
-		count.set(0);
+		count = 0;
 	}
 	
 	public int getCount() {
-		return count.get();
+		return count;
 	}
 	
 	@Override
@@ -96,8 +156,8 @@ public class Session {
 				getClass().getSimpleName(),
 				sessionKey,
 				sessionID,
-				count.get(),
-				lastActiveTime, maxIdleTimeToLive - (System.currentTimeMillis() - lastActiveTime),
+				count,
+				lastActiveTime, maxIdleTimeToLive - (CoarseClock.currentTimeMillis() - lastActiveTime),
 				closed ? "true" : "false"
 				);
 	}
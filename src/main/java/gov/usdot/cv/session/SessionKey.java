@@ -1,7 +1,5 @@
 package gov.usdot.cv.session;
 
-import java.util.Arrays;
-
 import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
 import gov.usdot.asn1.generated.j2735.semi.GroupID;
 import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
@@ -9,7 +7,7 @@ import gov.usdot.cv.common.asn1.GroupIDHelper;
 import gov.usdot.cv.common.asn1.TemporaryIDHelper;
 import gov.usdot.cv.common.inet.InetPoint;
 
-public class SessionKey {
+public class SessionKey extends PackedSessionKey {
 	public final InetPoint source;
 	public final long dialogID;
 	public final int groupID;
@@ -31,40 +29,22 @@ public class SessionKey {
 		this.groupID = TemporaryIDHelper.fromTemporaryID(groupID);
 		this.requestID = TemporaryIDHelper.fromTemporaryID(requestID);
 		this.isMetaSession = isMetaSession;
-		this.hashCode = getHashCode();
-	}
-
-	@Override
-	public int hashCode() {
-		return hashCode;
+		pack(source != null, source != null ? source.address : null, source != null ? source.port : 0, source != null && source.forward,
+			 this.dialogID, this.groupID, this.requestID, isMetaSession);
+		this.hashCode = hash;
 	}
 	
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		final SessionKey other = (SessionKey) obj;
-		if (requestID != other.requestID || groupID != other.groupID || dialogID != other.dialogID || isMetaSession != other.isMetaSession)
-			return false;
-		if (source == null && other.source == null) 
-			return true;
-		if (source == null || other.source == null )
-			return false;
-		if ( source.port != other.source.port )
-			return false;
-		if ( source.forward != other.source.forward )
-			return false;
-		if ( source.address == null && other.source.address == null)
-			return true;
-		if ( source.address == null || other.source.address == null)
-			return false;
-		return Arrays.equals(source.address, other.source.address);
+	SessionKey(InetPoint source, long dialogID, int groupID, int requestID, boolean isMetaSession) {
+		this.source = source;
+		this.dialogID = dialogID;
+		this.groupID = groupID;
+		this.requestID = requestID;
+		this.isMetaSession = isMetaSession;
+		pack(source != null, source != null ? source.address : null, source != null ? source.port : 0, source != null && source.forward,
+			 dialogID, groupID, requestID, isMetaSession);
+		this.hashCode = hash;
 	}
-	
+
 	@Override
 	public String toString() {
 		return String.format("%s { source = %s; dialogID = %d (0x%x); groupID = %d (0x%x); requestID = %d (0x%x); isMetaSession = %s; hashCode = 0x%x }",
@@ -78,16 +58,4 @@ public class SessionKey {
 				);
 	}
 	
-	private int getHashCode() {
-		return Arrays.deepHashCode(	new Object[] {
-				source != null ? source.port : 0,
-				source != null ? source.forward : 0,
-				source != null ? source.address : new byte[0],
-				dialogID,
-				groupID,
-				requestID,
-				isMetaSession,
-		});
-	}
-	
 }
@@ -0,0 +1,53 @@
+package gov.usdot.cv.session;
+
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.asn1.TemporaryIDHelper;
+import gov.usdot.cv.common.inet.InetPoint;
+
+/**
+ * Reusable session key that is only used to look up sessions. Every thread has its own probe that is
+ * refilled for every lookup so no key is allocated. A probe must never be stored in the session map.
+ */
+final class SessionKeyProbe extends PackedSessionKey {
+
+	private static final ThreadLocal<SessionKeyProbe> probes = new ThreadLocal<SessionKeyProbe>() {
+		@Override
+		protected SessionKeyProbe initialValue() {
+			return new SessionKeyProbe();
+		}
+	};
+
+	private SessionKeyProbe() {
+	}
+
+	/**
+	 * Returns probe of the calling thread set to the dialog session key
+	 */
+	static SessionKeyProbe of(InetPoint source, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID) {
+		SessionKeyProbe probe = probes.get();
+		probe.set(source, dialogID.longValue(), TemporaryIDHelper.fromTemporaryID(groupID), TemporaryIDHelper.fromTemporaryID(requestID), false);
+		return probe;
+	}
+
+	/**
+	 * Returns probe of the calling thread set to the meta session key
+	 */
+	static SessionKeyProbe of(InetPoint source, SemiDialogID dialogID) {
+		SessionKeyProbe probe = probes.get();
+		probe.set(source, dialogID.longValue(), 0, 0, true);
+		return probe;
+	}
+
+	private void set(InetPoint source, long dialogID, int groupID, int requestID, boolean isMetaSession) {
+		pack(source != null, source != null ? source.address : null, source != null ? source.port : 0, source != null && source.forward,
+			 dialogID, groupID, requestID, isMetaSession);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { dialogID = %d; ids = 0x%x; flags = 0x%x; hashCode = 0x%x }", getClass().getSimpleName(), dialog, ids, flags, hash);
+	}
+
+}
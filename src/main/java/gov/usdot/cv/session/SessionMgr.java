@@ -23,10 +23,8 @@ import gov.usdot.asn1.generated.j2735.semi.VehSitDataMessage;
 import gov.usdot.cv.common.asn1.DialogIDHelper;
 import gov.usdot.cv.common.inet.InetPoint;
 
-import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -38,22 +36,21 @@ public class SessionMgr {
 
 	private static final int DEFAULT_SESSION_TTL 	  = 20*1000; 	// 20 seconds of inactivity
 	private static final int DEFAULT_PURGE_INTERVAL   = 10*1000;	// 10 seconds
+	private static final int MAX_TICK_DURATION        = 1000;		// 1 second
 	public static final int DEFAULT_META_SESSION_TTL  = 60*1000;	// 1 min
 	
 	//
 	// Session Map
 	//
 	
-	public static final int initialCapacity = 16;
-	public static final float loadFactor = 0.9f;
-	public static final int concurrencyLevel = 1; // let's keep it simple until we have some benchmarks with real loads
-	
-	// We use Object type for the key so we can index by both SessionKey and SessionID (i.e. String)
-	// in one map and thus avoid creating and synchronizing two maps. This reduces the overhead
-	// and is very safe because StringKey and SessionID are never the same
-	private final ConcurrentHashMap<Object, Session> sessions = new ConcurrentHashMap<Object, Session>(initialCapacity, loadFactor, concurrencyLevel);
+	// Sessions are indexed by both SessionKey and SessionID (i.e. String). The store keeps the two indexes in sync.
+	// Lookups by key use a thread local SessionKeyProbe that is equal to the stored SessionKey.
+	// Sessions are kept on the heap and expired by the timer wheel unless the off-heap store is used, which expires the sessions
+	// in its slots itself. Sessions that don't fit into the off-heap store are kept on the heap and expired by the timer wheel.
+	private volatile SessionTable sessions = new SessionStore(SessionStore.DEFAULT_INITIAL_CAPACITY, Runtime.getRuntime().availableProcessors());
+	private volatile OffHeapSessionStore offHeapSessions = null;
 	private final int sessionTimeToLive;
-	private final int sessionPurgeInterval;
+	private final SessionTimerWheel timerWheel;
 	
 	//
 	// Session Manager
@@ -69,11 +66,18 @@ public class SessionMgr {
 	/**
 	 * Custom constructor
 	 * @param sessionTimeToLive Session time to live in milliseconds
-	 * @param sessionPurgeInterval Session purge interval in milliseconds
+	 * @param sessionPurgeInterval Session purge interval in milliseconds, the longest a session may outlive its time to live.
+	 * Expiration timer ticks at this interval but at least once a second
 	 */
 	public SessionMgr(int sessionTimeToLive, int sessionPurgeInterval) {
 		this.sessionTimeToLive = sessionTimeToLive;
-		this.sessionPurgeInterval = sessionPurgeInterval;
+		this.timerWheel = new SessionTimerWheel(Math.min(sessionPurgeInterval, MAX_TICK_DURATION), SessionTimerWheel.DEFAULT_WHEEL_SIZE,
+			new SessionTimerWheel.ExpiryListener() {
+				@Override
+				public void expired(Session session) {
+					purgeSession(session);
+				}
+			}, CoarseClock.currentTimeMillis());
 	}
 	
 	/**
@@ -83,6 +87,34 @@ public class SessionMgr {
 		startSessionPurger();
 	}
 	
+	/**
+	 * Initializes Session Manager
+	 * @param concurrencyLevel expected number of threads that create and look up sessions concurrently
+	 */
+	public void initialize(int concurrencyLevel) {
+		initialize(concurrencyLevel, 0);
+	}
+	
+	/**
+	 * Initializes Session Manager
+	 * @param concurrencyLevel expected number of threads that create and look up sessions concurrently
+	 * @param offHeapCapacity maximum number of sessions kept in direct memory (0 - sessions are kept on the heap)
+	 */
+	public void initialize(int concurrencyLevel, int offHeapCapacity) {
+		if ( sessions.size() == 0 ) {
+			if ( offHeapCapacity > 0 ) {
+				offHeapSessions = new OffHeapSessionStore(offHeapCapacity, concurrencyLevel > 0 ? concurrencyLevel : Runtime.getRuntime().availableProcessors(),
+						timerWheel.getTickDuration());
+				sessions = offHeapSessions;
+				log.info(String.format("Using off-heap session store: %s", offHeapSessions));
+			} else if ( concurrencyLevel > 0 ) {
+				offHeapSessions = null;
+				sessions = new SessionStore(SessionStore.DEFAULT_INITIAL_CAPACITY, concurrencyLevel);
+			}
+		}
+		initialize();
+	}
+	
 	/**
 	 * Disposes Session Manager
 	 */
@@ -176,6 +208,19 @@ public class SessionMgr {
 		return sessions.get(sessionID);
 	}
 	
+	/**
+	 * Checks whether there is an active session for the dialog without touching it
+	 * @param source InetPoint of the session source
+	 * @param dialogID dialog ID of the session
+	 * @param groupID group ID of the session
+	 * @param requestID request ID of the session
+	 * @return true if the session exists and is active
+	 */
+	public boolean hasActiveSession(InetPoint source, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID) {
+		Session session = sessions.get(SessionKeyProbe.of(source, dialogID, groupID, requestID));
+		return session != null && !session.isInactive();
+	}
+	
 	private Session createSession(InetPoint source, SemiDialogID dialogID, SemiSequenceID seqID, GroupID groupID, TemporaryID requestID) {
 		SessionKey sessionKey = new SessionKey(source, dialogID, groupID, requestID);
 		Session session = new Session(sessionKey, calculateSessionTimeToLive(dialogID));
@@ -187,9 +232,7 @@ public class SessionMgr {
 			metaSession.touch();
 		}
 		session.putSeqID(seqID);
-		String sessionID = session.getSessionID();
-		sessions.put(sessionKey, session);
-		sessions.put(sessionID,  session);
+		session = store(session);
 		log.debug(String.format("Created session: %s", session));
 		return session;
 	}
@@ -239,8 +282,9 @@ public class SessionMgr {
 			requestID = ord.getRequestID();		
 		}
 		if ( dialogID != null && requestID != null && groupID != null) {
-			SessionKey sessionKey = new SessionKey(source, dialogID, groupID, requestID);
-			log.debug(String.format("Searching for session: %s", sessionKey));
+			SessionKeyProbe sessionKey = SessionKeyProbe.of(source, dialogID, groupID, requestID);
+			if ( log.isDebugEnabled() )
+				log.debug(String.format("Searching for session: %s", sessionKey));
 			Session session = sessions.get(sessionKey);
 			if ( session != null && !session.isInactive() ) {
 				if ( incrementCount )
@@ -267,7 +311,17 @@ public class SessionMgr {
 	}
 	
 	private Session getMetaSession(InetPoint source, AbstractData pdu, boolean requireTrustEstablishemnt) {
-		SemiDialogID dialogID = DialogIDHelper.getDialogID(pdu);
+		return getMetaSession(source, DialogIDHelper.getDialogID(pdu), requireTrustEstablishemnt);
+	}
+	
+	/**
+	 * Returns active meta session for the source and dialog type
+	 * @param source InetPoint for which to find the meta session
+	 * @param dialogID dialog type of the meta session
+	 * @param requireTrustEstablishemnt if false and there is no active meta session a new unregistered session is returned 
+	 * @return meta session or null if trust establishment is required but there is no active meta session
+	 */
+	public Session getMetaSession(InetPoint source, SemiDialogID dialogID, boolean requireTrustEstablishemnt) {
 		Session metaSession = getMetaSession(source, dialogID);
 		if ( metaSession != null && !metaSession.isInactive()  ) {
 			metaSession.touch();
@@ -281,13 +335,9 @@ public class SessionMgr {
 	//
 	
 	private Session createMetaSession(ServiceRequest serviceRequest, InetPoint source, byte[] certificate, byte[] certID8) {
-		// if meta session for this source and dialog type exist we remove it first by closing that session
 		SessionKey sessionKey = new SessionKey(source, serviceRequest.getDialogID());
-		Session session = sessions.get(sessionKey);
-		if ( session != null )
-			session.close();
 		// create new meta session
-		session = new Session(sessionKey, DEFAULT_META_SESSION_TTL);
+		Session session = new Session(sessionKey, DEFAULT_META_SESSION_TTL);
 		InetPoint destination = getDestination(serviceRequest, source);
 		if ( destination != null )
 			session.setDestination(destination);
@@ -295,14 +345,19 @@ public class SessionMgr {
 			session.setCertificate(certificate);
 		if ( certID8 != null )
 			session.setCertID8(certID8);
-		String sessionID = session.getSessionID();
-		sessions.put(sessionKey, session);
-		sessions.put(sessionID,  session);
-		return session;
+		// if meta session for this source and dialog type exist it is replaced and closed
+		return store(session);
+	}
+	
+	private Session store(Session session) {
+		final Session stored = sessions.add(session);
+		if ( !(stored instanceof OffHeapSessionStore.SlotSession) )
+			timerWheel.schedule(stored);
+		return stored;
 	}
 	
 	private Session getMetaSession(InetPoint source, SemiDialogID dialogID) {
-		Session metaSession = sessions.get(new SessionKey(source, dialogID));
+		Session metaSession = sessions.get(SessionKeyProbe.of(source, dialogID));
 		return metaSession != null && !metaSession.isInactive() ? metaSession  : null;
 	}
 	
@@ -357,7 +412,8 @@ public class SessionMgr {
 				purgeSessions();
 			}
 		};
-		timer.schedule(task, sessionPurgeInterval, sessionPurgeInterval);
+		final long tickDuration = timerWheel.getTickDuration();
+		timer.schedule(task, tickDuration, tickDuration);
 	}
 	
 	private void stopSessionPurger()
@@ -368,17 +424,21 @@ public class SessionMgr {
 			timer.purge();
 			timer = null;
 		}
+		timerWheel.clear();
 	}
 	
 	private void purgeSessions() {
-		log.debug("Purging inactive sessions");
-		for ( Entry<Object, Session> entry : sessions.entrySet() ) {
-			if ( entry.getValue().isInactive() ) {
-				Object key = entry.getKey();
-				log.debug(String.format("Purging session with key: %s", key));
-				sessions.remove(key);
-			}
-		}
+		final long now = CoarseClock.currentTimeMillis();
+		final OffHeapSessionStore offHeapSessions = this.offHeapSessions;
+		if ( offHeapSessions != null )
+			offHeapSessions.expire(now);
+		timerWheel.advance(now);
+	}
+	
+	private void purgeSession(Session session) {
+		// a session is removed only if it was not replaced by a new session with the same key
+		if ( sessions.remove(session) && log.isDebugEnabled() )
+			log.debug(String.format("Purging session with key: %s", session.getSessionKey()));
 	}
 
 	//
@@ -386,7 +446,7 @@ public class SessionMgr {
 	//
 	
 	int getSessionsCount() {
-		return sessions.size()/2;	// two entries per session
+		return sessions.size();
 	}
 	
 	Session getSession(SessionKey sessionKey) {
@@ -396,8 +456,8 @@ public class SessionMgr {
 	void dumpSessions() {
 		int i = 0;
 		System.out.println("---------------- Sessions ----------------\n");
-		for ( Entry<Object, Session> entry : sessions.entrySet() ) {
-			System.out.printf("%3d: key: %s value: %s\n", i++, entry.getKey(), entry.getValue());
+		for ( Session session : sessions.values() ) {
+			System.out.printf("%3d: key: %s value: %s\n", i++, session.getSessionKey(), session);
 		}
 		System.out.println("------------------------------------------\n");
 	}
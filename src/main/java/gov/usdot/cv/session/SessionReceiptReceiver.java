@@ -1,7 +1,8 @@
 package gov.usdot.cv.session;
 
-import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ListIterator;
 
 import org.apache.commons.codec.binary.Hex;
@@ -29,6 +30,9 @@ import gov.usdot.cv.common.inet.InetPacketSender;
 import gov.usdot.cv.common.inet.InetPoint;
 import gov.usdot.cv.security.crypto.CryptoProvider;
 import gov.usdot.cv.security.msg.IEEE1609p2Message;
+import gov.usdot.cv.transport.EncodeBuffer;
+import gov.usdot.cv.transport.OutboundChannelPool;
+import gov.usdot.cv.transport.RecipientCache;
 import gov.usdot.cv.transport.UDPMessageProcessor;
 
 public class SessionReceiptReceiver extends ReceiptReceiver {
@@ -43,6 +47,8 @@ public class SessionReceiptReceiver extends ReceiptReceiver {
 	private InetAddress forwarderAddress = null;
 	private int forwarderPort = 0;
 	private CryptoProvider cryptoProvider = new CryptoProvider();
+	private OutboundChannelPool outboundPool = null;
+	private RecipientCache recipientCache = null;
 
 	public SessionReceiptReceiver(String topicName) {
 		super(topicName);
@@ -64,6 +70,14 @@ public class SessionReceiptReceiver extends ReceiptReceiver {
 		this.forwarderPort = forwarderPort;
 	}
 	
+	public void setOutboundPool(OutboundChannelPool outboundPool) {
+		this.outboundPool = outboundPool;
+	}
+	
+	public void setRecipientCache(RecipientCache recipientCache) {
+		this.recipientCache = recipientCache;
+	}
+	
 	@Override
 	public void initialize() throws ReceiptReceiverException {
 		super.initialize();
@@ -136,9 +150,9 @@ public class SessionReceiptReceiver extends ReceiptReceiver {
 	private void send(InetPoint destination, AbstractData pdu, byte[] recipient ) {
 		assert(destination != null);
 		try {
-			ByteArrayOutputStream sink = new ByteArrayOutputStream();
+			EncodeBuffer sink = EncodeBuffer.get();
 			coder.encode(pdu, sink);
-			byte[] payload = sink.toByteArray();
+			ByteBuffer payload = sink.toByteBuffer();
 			if ( recipient != null )
 				payload = encrypt(payload, recipient);
 			send(destination, payload);
@@ -149,35 +163,55 @@ public class SessionReceiptReceiver extends ReceiptReceiver {
 		}
 	}
 	
-	private void send(InetPoint client, byte[] payload) {
+	private void send(InetPoint client, ByteBuffer payload) {
+		final OutboundChannelPool pool = outboundPool;
+		if ( pool != null ) {
+			try {
+				if ( pool.isForwarding() && client.forward )
+					pool.forward(client, payload);
+				else
+					pool.send(client, payload);
+			} catch (UnknownHostException ex) {
+				log.error(String.format("Couldn't send receipt to address %s (bytes hex encoded), port %d", Hex.encodeHexString(client.address), client.port), ex);
+			}
+			return;
+		}
 		try {
 			if ( forwarderAddress != null && client.forward ) {
 				InetPoint forwarder = new InetPoint(forwarderAddress.getAddress(), forwarderPort);
 				InetPacketSender sender = new InetPacketSender(forwarder);
 				sender.setForwardAll(true);
 				log.debug(String.format("Forwarding to host: %s, port: %d for client: %s", forwarderAddress.getHostAddress(), forwarderPort, client));
-				sender.forward(client, payload);
+				sender.forward(client, EncodeBuffer.toArray(payload));
 			} else {
 				InetPacketSender sender = new InetPacketSender();
 				log.debug(String.format("Sending directly to client: %s", client));
-				sender.send(client, payload);
+				sender.send(client, EncodeBuffer.toArray(payload));
 			}
 		} catch (InetPacketException ex) {
 			log.error(String.format("Couldn't send ServiceResponse to address %s (bytes hex encoded), port %d", Hex.encodeHexString(client.address), client.port), ex);
 		}
 	}
 	
-	private byte[] encrypt(byte[] payload, byte[] recipient) {
+	private ByteBuffer encrypt(ByteBuffer payload, byte[] recipient) {
+		// receipts are always encrypted when possible, a recipient remembered as unresolvable only skips replies
+		final RecipientCache cache = recipientCache;
 		IEEE1609p2Message msg1609p2 = new IEEE1609p2Message(cryptoProvider);
 		msg1609p2.setPSID(UDPMessageProcessor.Psid);
 		try {
 			if ( recipient != null ) {
 				log.debug("Encrypting receipt message for recipient: " + Hex.encodeHexString(recipient)); //  
-				return msg1609p2.encrypt(payload, recipient);
+				final ByteBuffer encrypted = ByteBuffer.wrap(msg1609p2.encrypt(EncodeBuffer.toArray(payload), recipient));
+				if ( cache != null )
+					cache.markResolved(recipient);
+				return encrypted;
 			}
 			log.error("Couldn't encrypt outgoing message. Reason: Recipient certificate is not available (probably due to ignored failed trust establishment)" ); 
 		} catch (Exception ex) {
 			log.error("Couldn't encrypt outgoing message. Reason: " + ex.getMessage(), ex);
+			// only a recipient whose key has never been resolved is skipped by later replies
+			if ( cache != null && cache.markUnresolvable(recipient) )
+				log.warn("Encryption key of receipt recipient could not be resolved, replies to it are dropped for a while: " + Hex.encodeHexString(recipient));
 		}
 		return payload;
 	}
@@ -0,0 +1,117 @@
+package gov.usdot.cv.session;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session store with a primary index by session key and a secondary index by session ID.
+ * Lookups go straight to the concurrent maps without locking. Changes to both indexes are made
+ * under the lock of the stripe the session key hashes to, so a session is always in both indexes
+ * or in neither and the number of sessions is exact. Stripes and map concurrency are sized to the
+ * number of threads that are expected to create and purge sessions.
+ */
+class SessionStore implements SessionTable {
+
+	public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MAX_STRIPES = 1024;
+
+	private final ConcurrentHashMap<PackedSessionKey, Session> byKey;
+	private final ConcurrentHashMap<String, Session> byID;
+	private final Object[] locks;
+	private final int mask;
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Creates session store
+	 * @param initialCapacity expected number of sessions
+	 * @param concurrencyLevel expected number of threads that change the store concurrently, rounded up to a power of two
+	 */
+	SessionStore(int initialCapacity, int concurrencyLevel) {
+		int stripes = 1;
+		while ( stripes < concurrencyLevel && stripes < MAX_STRIPES )
+			stripes <<= 1;
+		this.byKey = new ConcurrentHashMap<PackedSessionKey, Session>(initialCapacity, LOAD_FACTOR, stripes);
+		this.byID = new ConcurrentHashMap<String, Session>(initialCapacity, LOAD_FACTOR, stripes);
+		this.locks = new Object[stripes];
+		for ( int i = 0; i < stripes; i++ )
+			locks[i] = new Object();
+		this.mask = stripes - 1;
+	}
+
+	@Override
+	public Session get(PackedSessionKey sessionKey) {
+		return byKey.get(sessionKey);
+	}
+
+	@Override
+	public Session get(String sessionID) {
+		return byID.get(sessionID);
+	}
+
+	/**
+	 * Adds the session to the store replacing the session with the same key if there is one
+	 * @param session session to add
+	 * @return replaced session or null if there was no session with the same key
+	 */
+	Session put(Session session) {
+		final SessionKey sessionKey = session.getSessionKey();
+		synchronized(lock(sessionKey)) {
+			final Session replaced = byKey.put(sessionKey, session);
+			if ( replaced != null )
+				byID.remove(replaced.getSessionID(), replaced);
+			else
+				count.incrementAndGet();
+			byID.put(session.getSessionID(), session);
+			return replaced;
+		}
+	}
+
+	@Override
+	public Session add(Session session) {
+		final Session replaced = put(session);
+		if ( replaced != null && replaced != session )
+			replaced.close();
+		return session;
+	}
+
+	@Override
+	public boolean remove(Session session) {
+		final SessionKey sessionKey = session.getSessionKey();
+		synchronized(lock(sessionKey)) {
+			if ( !byKey.remove(sessionKey, session) )
+				return false;
+			byID.remove(session.getSessionID(), session);
+			count.decrementAndGet();
+			return true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		for ( Session session : byKey.values() )
+			remove(session);
+	}
+
+	@Override
+	public int size() {
+		return count.get();
+	}
+
+	int getStripes() {
+		return locks.length;
+	}
+
+	@Override
+	public Collection<Session> values() {
+		return byKey.values();
+	}
+
+	private Object lock(PackedSessionKey sessionKey) {
+		final int hash = sessionKey.hashCode();
+		return locks[(hash ^ (hash >>> 16)) & mask];
+	}
+
+}
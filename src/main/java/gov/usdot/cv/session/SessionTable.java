@@ -0,0 +1,34 @@
+package gov.usdot.cv.session;
+
+import java.util.Collection;
+
+/**
+ * Sessions of the session manager indexed by session key and by session ID
+ */
+interface SessionTable {
+
+	Session get(PackedSessionKey sessionKey);
+
+	Session get(String sessionID);
+
+	/**
+	 * Adds the session replacing and closing the session with the same key if there is one
+	 * @param session session to add
+	 * @return session as stored in the table, callers must use it instead of the added session
+	 */
+	Session add(Session session);
+
+	/**
+	 * Removes the session unless it has been replaced by another session with the same key
+	 * @param session session to remove
+	 * @return true if the session was removed
+	 */
+	boolean remove(Session session);
+
+	void clear();
+
+	int size();
+
+	Collection<Session> values();
+
+}
@@ -0,0 +1,124 @@
+package gov.usdot.cv.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timer wheel that expires sessions. Every persisted session is placed into the bucket of the tick
+ * at which it expires. Touching a session only updates its last active time, so when the bucket of a session
+ * comes due and the session has been active since it was scheduled, it is moved to the bucket of its new
+ * expiration tick instead of being expired. The cost of a tick is proportional to the number of sessions in
+ * its bucket rather than to the number of sessions.
+ * Sessions are handed over to the wheel through a concurrent queue and only the thread that advances the wheel
+ * touches the buckets, so the buckets need no synchronization.
+ */
+class SessionTimerWheel {
+
+	static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/**
+	 * Receives sessions that have expired or have been closed
+	 */
+	interface ExpiryListener {
+		void expired(Session session);
+	}
+
+	private final long tickDuration;
+	private final int mask;
+	private final List<List<Session>> buckets;
+	private final ConcurrentLinkedQueue<Session> pending = new ConcurrentLinkedQueue<Session>();
+	private final ExpiryListener listener;
+	private long nextTick;		// next tick to process, only accessed by the thread that advances the wheel
+
+	/**
+	 * Creates timer wheel
+	 * @param tickDuration duration of a tick in milliseconds
+	 * @param wheelSize number of buckets, rounded up to a power of two
+	 * @param listener listener to notify when a session expires
+	 * @param now current time in milliseconds
+	 */
+	SessionTimerWheel(long tickDuration, int wheelSize, ExpiryListener listener, long now) {
+		int size = 1;
+		while ( size < wheelSize && size < (1 << 20) )
+			size <<= 1;
+		this.tickDuration = Math.max(tickDuration, 1);
+		this.mask = size - 1;
+		this.buckets = new ArrayList<List<Session>>(size);
+		for ( int i = 0; i < size; i++ )
+			buckets.add(new ArrayList<Session>());
+		this.listener = listener;
+		this.nextTick = now / this.tickDuration;
+	}
+
+	long getTickDuration() {
+		return tickDuration;
+	}
+
+	/**
+	 * Schedules the session to expire at its expiration time
+	 * @param session session to schedule
+	 */
+	void schedule(Session session) {
+		session.setTimerWheel(this);
+		pending.add(session);
+	}
+
+	/**
+	 * Schedules the session to expire on the next tick, used when the session is closed
+	 * @param session session to expire
+	 */
+	void expire(Session session) {
+		pending.add(session);
+	}
+
+	/**
+	 * Expires all sessions whose ticks have passed
+	 * @param now current time in milliseconds
+	 */
+	void advance(long now) {
+		final long currentTick = now / tickDuration;
+		Session session;
+		while ( (session = pending.poll()) != null )
+			reschedule(session, nextTick);
+		for ( ; nextTick <= currentTick; nextTick++ ) {
+			final int index = (int)nextTick & mask;
+			final List<Session> due = buckets.get(index);
+			if ( due.isEmpty() )
+				continue;
+			// sessions that are due a later round go back into the same bucket so it is replaced first
+			buckets.set(index, new ArrayList<Session>());
+			for ( Session dueSession : due )
+				reschedule(dueSession, nextTick + 1);
+		}
+	}
+
+	private void reschedule(Session session, long earliestTick) {
+		if ( session.isInactive() ) {
+			listener.expired(session);
+			return;
+		}
+		final long expirationTick = Math.max(session.getExpirationTime() / tickDuration, earliestTick);
+		buckets.get((int)expirationTick & mask).add(session);
+	}
+
+	/**
+	 * Removes all sessions from the wheel without expiring them
+	 */
+	void clear() {
+		pending.clear();
+		for ( int i = 0; i < buckets.size(); i++ )
+			buckets.set(i, new ArrayList<Session>());
+	}
+
+	/**
+	 * @return number of sessions in the wheel, intended for unit tests
+	 */
+	int size() {
+		int size = pending.size();
+		for ( List<Session> bucket : buckets )
+			size += bucket.size();
+		return size;
+	}
+
+}
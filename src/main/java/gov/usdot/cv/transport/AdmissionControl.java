@@ -0,0 +1,134 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.asn1.DialogIDHelper;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Per source address rate limiting that keeps one flooding source from starving the workers.
+ * Every packet of a source takes a token from the source bucket before its 1609.2 envelope is parsed.
+ * Dialogs that have their own limit configured also take a token from the bucket of the source and
+ * dialog once the message header is known, before the payload is decoded.
+ */
+public class AdmissionControl {
+
+	private static final Logger log = Logger.getLogger(AdmissionControl.class);
+
+	public static final int DEFAULT_TABLE_SIZE = 64*1024;
+
+	private final TokenBucketTable sourceBuckets;
+	private final TokenBucketTable dialogBuckets;
+	private final int sourceRate;
+	private final int sourceBurst;
+	private final Map<Long,Integer> dialogRates;
+
+	private final AtomicLong sourceDropCount = new AtomicLong();
+	private final AtomicLong dialogDropCount = new AtomicLong();
+
+	/**
+	 * Creates admission control
+	 * @param tableSize number of token buckets per table
+	 * @param sourceRate packets per second each source address may send (0 - unlimited)
+	 * @param sourceBurst number of packets a source address may send at once
+	 * @param dialogRates packets per second each source address may send for the given dialog IDs
+	 */
+	public AdmissionControl(int tableSize, int sourceRate, int sourceBurst, Map<SemiDialogID,Integer> dialogRates) {
+		this.sourceRate = Math.max(sourceRate, 0);
+		this.sourceBurst = Math.max(sourceBurst, 1);
+		this.dialogRates = new HashMap<Long,Integer>();
+		if ( dialogRates != null )
+			for ( Map.Entry<SemiDialogID,Integer> entry : dialogRates.entrySet() )
+				if ( entry.getValue() != null && entry.getValue() > 0 )
+					this.dialogRates.put(entry.getKey().longValue(), entry.getValue());
+		this.sourceBuckets = this.sourceRate > 0 ? new TokenBucketTable(tableSize) : null;
+		this.dialogBuckets = !this.dialogRates.isEmpty() ? new TokenBucketTable(tableSize) : null;
+	}
+
+	/**
+	 * Parses dialog rates in the form dialog=rate[,dialog=rate...], e.g. "vehSitData=100,advSitDataDep=10"
+	 * @param value dialog rates to parse
+	 * @return rate per dialog ID, invalid entries are logged and ignored
+	 */
+	public static Map<SemiDialogID,Integer> parseDialogRates(String value) {
+		Map<SemiDialogID,Integer> rates = new HashMap<SemiDialogID,Integer>();
+		if ( value == null )
+			return rates;
+		for ( String entry : value.split(",") ) {
+			entry = entry.trim();
+			if ( entry.isEmpty() )
+				continue;
+			final int separator = entry.indexOf('=');
+			SemiDialogID dialogID = separator > 0 ? DialogIDHelper.getDialogID(entry.substring(0, separator).trim()) : null;
+			if ( dialogID == null ) {
+				log.warn(String.format("Ignoring invalid dialog rate '%s'", entry));
+				continue;
+			}
+			try {
+				rates.put(dialogID, Integer.parseInt(entry.substring(separator + 1).trim()));
+			} catch (NumberFormatException ex) {
+				log.warn(String.format("Ignoring invalid dialog rate '%s'", entry));
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Checks whether the source may send another packet
+	 * @param source source of the packet
+	 * @return true if the packet should be processed, false if it should be dropped
+	 */
+	public boolean admit(InetPoint source) {
+		if ( sourceBuckets == null || source == null )
+			return true;
+		if ( sourceBuckets.tryAcquire(hash(source), sourceRate, sourceBurst) )
+			return true;
+		sourceDropCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Checks whether the source may send another packet for the dialog
+	 * @param source source of the packet
+	 * @param dialogID dialog of the packet
+	 * @return true if the packet should be processed, false if it should be dropped
+	 */
+	public boolean admit(InetPoint source, SemiDialogID dialogID) {
+		if ( dialogBuckets == null || source == null || dialogID == null )
+			return true;
+		final long dialog = dialogID.longValue();
+		final Integer rate = dialogRates.get(dialog);
+		if ( rate == null )
+			return true;
+		if ( dialogBuckets.tryAcquire(31*hash(source) + (int)dialog, rate, rate) )
+			return true;
+		dialogDropCount.incrementAndGet();
+		return false;
+	}
+
+	public long getSourceDropCount() {
+		return sourceDropCount.get();
+	}
+
+	public long getDialogDropCount() {
+		return dialogDropCount.get();
+	}
+
+	private static int hash(InetPoint source) {
+		// limits apply per address so a source can't get around them by changing its port
+		return Arrays.hashCode(source.address);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { sourceRate = %d; sourceBurst = %d; dialogRates = %d; sourceDropCount = %d; dialogDropCount = %d }",
+				getClass().getSimpleName(), sourceRate, sourceBurst, dialogRates.size(), sourceDropCount.get(), dialogDropCount.get());
+	}
+
+}
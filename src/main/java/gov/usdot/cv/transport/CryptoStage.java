@@ -0,0 +1,122 @@
+package gov.usdot.cv.transport;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Dedicated fork-join pool that parses and verifies the IEEE 1609.2 envelopes of a batch of datagrams in parallel.
+ * The pool is sized independently of the receive workers. The caller waits for the whole batch and then continues
+ * with decode and session processing in receive order, so the order of the messages of each source is kept.
+ */
+public class CryptoStage {
+
+	private static final Logger log = Logger.getLogger(CryptoStage.class);
+
+	// ranges larger than this are split so every item of a batch can be verified by a different thread
+	private static final int SPLIT_THRESHOLD = 1;
+
+	private final ForkJoinPool pool;
+
+	private final AtomicLong batchCount = new AtomicLong(0);
+	private final AtomicLong verifiedCount = new AtomicLong(0);
+	private final AtomicLong failedCount = new AtomicLong(0);
+
+	/**
+	 * Creates crypto stage
+	 * @param parallelism number of crypto threads
+	 */
+	public CryptoStage(int parallelism) {
+		pool = new ForkJoinPool(Math.max(1, parallelism));
+		log.info(String.format("Created crypto stage with parallelism %d", pool.getParallelism()));
+	}
+
+	/**
+	 * Runs the parse/verify stage of the processor for every item of the batch in parallel
+	 * @param processor processor whose parse/verify stage to run
+	 * @param items batch of received datagrams
+	 * @return parse results, one per item in the order of the items
+	 * @throws RejectedExecutionException if the crypto stage has been shut down
+	 */
+	public boolean[] parse(UDPMessageProcessor processor, List<IngestItem> items) {
+		final boolean[] parsed = new boolean[items.size()];
+		pool.invoke(new VerifyTask(processor, items, parsed, 0, items.size()));
+		batchCount.incrementAndGet();
+		return parsed;
+	}
+
+	/**
+	 * Shuts the crypto stage down. Batches that are being verified are completed, new batches are rejected.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+		log.info(String.format("Shut down crypto stage: %s", this));
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	public long getVerifiedCount() {
+		return verifiedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { parallelism = %d; batches = %d; verified = %d; failed = %d }",
+				getClass().getSimpleName(), getParallelism(), getBatchCount(), getVerifiedCount(), getFailedCount());
+	}
+
+	private class VerifyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final UDPMessageProcessor processor;
+		private final List<IngestItem> items;
+		private final boolean[] parsed;
+		private final int from;
+		private final int to;
+
+		VerifyTask(UDPMessageProcessor processor, List<IngestItem> items, boolean[] parsed, int from, int to) {
+			this.processor = processor;
+			this.items = items;
+			this.parsed = parsed;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ( to - from > SPLIT_THRESHOLD ) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new VerifyTask(processor, items, parsed, from, middle), new VerifyTask(processor, items, parsed, middle, to));
+				return;
+			}
+			for ( int i = from; i < to; i++ ) {
+				try {
+					parsed[i] = processor.parse(items.get(i));
+				} catch (Exception ex) {
+					log.error("Couldn't parse message", ex);
+					parsed[i] = false;
+				}
+				if ( parsed[i] )
+					verifiedCount.incrementAndGet();
+				else
+					failedCount.incrementAndGet();
+			}
+		}
+	}
+
+}
@@ -1,13 +1,17 @@
 package gov.usdot.cv.transport;
 
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
 import gov.usdot.cv.common.dialog.ReceiptReceiverException;
 import gov.usdot.cv.logging.MessageCounting;
 import gov.usdot.cv.security.DatabaseCertificateStore;
 import gov.usdot.cv.security.crypto.CryptoProvider;
+import gov.usdot.cv.session.CoarseClock;
 import gov.usdot.cv.session.SessionReceiptReceiver;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -37,6 +41,29 @@ public class CvUDPTransportService extends UDPTransportService {
 	final public  String MESSAGE_FORMAT_DEFAULT = "IEEE1609Dot2";
 	final private String MESSAGE_FORMAT_REGEX   = "^(" + MESSAGE_FORMAT_DEFAULT + "|DSRCJ2735)$";
 	
+	final public  String RECEIVE_ENGINE_DEFAULT = "DatagramSocket";
+	final public  String RECEIVE_ENGINE_CHANNEL = "DatagramChannel";
+	final private String RECEIVE_ENGINE_REGEX   = "^(" + RECEIVE_ENGINE_DEFAULT + "|" + RECEIVE_ENGINE_CHANNEL + ")$";
+	
+	final private int DEFAULT_RECEIVE_BUFFER_COUNT = 256;
+	final private int DEFAULT_RECEIVE_WORKER_COUNT = 0;	// one worker per available processor
+	final private int DEFAULT_RECEIVE_BATCH_SIZE = 32;
+	final private int DEFAULT_LISTENER_SHARDS = 1;
+	final private int DEFAULT_PIPELINE_WORKER_COUNT = 0;	// one worker per available processor
+	final private int DEFAULT_PIPELINE_STAGE_WORKER_COUNT = 1;
+	final private int DEFAULT_PIPELINE_QUEUE_CAPACITY = 1024;
+	final private int DEFAULT_PIPELINE_BULK_WORKER_COUNT = 0;	// no separate lane
+	final private int DEFAULT_CRYPTO_WORKER_COUNT = 0;	// one worker per available processor
+	final private int DEFAULT_REPLY_WORKER_COUNT = 2;
+	final private int DEFAULT_RECIPIENT_CACHE_SIZE = 0;	// recipients are not remembered
+	final private int DEFAULT_SOURCE_RATE_LIMIT = 0;	// no limit
+	final private int DEFAULT_SOURCE_BURST_LIMIT = 100;
+	final private int DEFAULT_DUPLICATE_WINDOW = 0;	// duplicates are not filtered
+	final private int DEFAULT_OVERLOAD_QUEUE_DEPTH = 0;	// queue depth is not checked
+	final private int DEFAULT_OVERLOAD_LATENCY = 0;	// latency is not checked
+	final private int DEFAULT_SESSION_CONCURRENCY = 0;	// sized to the number of workers
+	final private int DEFAULT_OFF_HEAP_SESSION_CAPACITY = 0;	// sessions are kept on the heap
+	
 	final private int DEFAULT_FORWARDER_PORT = 46761;
 	final private String DEFAULT_RECEIPTS_TOPIC = "cv.receipts";
 	
@@ -56,6 +83,40 @@ public class CvUDPTransportService extends UDPTransportService {
 
 	private String receiptsTopic = DEFAULT_RECEIPTS_TOPIC;
 	
+	private String receiveEngine = RECEIVE_ENGINE_DEFAULT;
+	private int receiveBufferCount = DEFAULT_RECEIVE_BUFFER_COUNT;
+	private int receiveWorkerCount = DEFAULT_RECEIVE_WORKER_COUNT;
+	private int receiveBatchSize = DEFAULT_RECEIVE_BATCH_SIZE;
+	private int listenerShards = DEFAULT_LISTENER_SHARDS;
+	private DatagramChannelReceiver[] channelReceivers = null;
+	private boolean ingestPipeline = false;
+	private int pipelineParseWorkers = DEFAULT_PIPELINE_WORKER_COUNT;
+	private int pipelineDecodeWorkers = DEFAULT_PIPELINE_WORKER_COUNT;
+	private int pipelineSessionWorkers = DEFAULT_PIPELINE_STAGE_WORKER_COUNT;
+	private int pipelineRespondWorkers = DEFAULT_PIPELINE_STAGE_WORKER_COUNT;
+	private int pipelineDispatchWorkers = DEFAULT_PIPELINE_STAGE_WORKER_COUNT;
+	private int pipelineBulkWorkers = DEFAULT_PIPELINE_BULK_WORKER_COUNT;
+	private int pipelineQueueCapacity = DEFAULT_PIPELINE_QUEUE_CAPACITY;
+	private IngestPipeline pipeline = null;
+	private boolean headerPeek = false;
+	private int recipientCacheSize = DEFAULT_RECIPIENT_CACHE_SIZE;
+	private int cryptoWorkers = DEFAULT_CRYPTO_WORKER_COUNT;
+	private int outboundChannels = OutboundChannelPool.DEFAULT_CHANNEL_COUNT;
+	private int replyFlushDelay = OutboundChannelPool.DEFAULT_FLUSH_DELAY;
+	private int replyBatchSize = OutboundChannelPool.DEFAULT_BATCH_SIZE;
+	private int replyWorkers = DEFAULT_REPLY_WORKER_COUNT;
+	private int replyQueueCapacity = ReplyExecutor.DEFAULT_QUEUE_CAPACITY;
+	private int sourceRateLimit = DEFAULT_SOURCE_RATE_LIMIT;
+	private int sourceBurstLimit = DEFAULT_SOURCE_BURST_LIMIT;
+	private String dialogRateLimits = "";
+	private int duplicateWindow = DEFAULT_DUPLICATE_WINDOW;
+	private int duplicateCapacity = DuplicateFilter.DEFAULT_CAPACITY;
+	private int overloadQueueDepth = DEFAULT_OVERLOAD_QUEUE_DEPTH;
+	private int overloadLatency = DEFAULT_OVERLOAD_LATENCY;
+	private int sessionConcurrency = DEFAULT_SESSION_CONCURRENCY;
+	private int offHeapSessionCapacity = DEFAULT_OFF_HEAP_SESSION_CAPACITY;
+	private int clockResolution = CoarseClock.DEFAULT_RESOLUTION;
+	
 	//
 	// Service Region
 	//
@@ -89,6 +150,28 @@ public class CvUDPTransportService extends UDPTransportService {
 		}
 	}
 	
+	private void initAdmissionControl() {
+		Map<SemiDialogID,Integer> dialogRates = AdmissionControl.parseDialogRates(dialogRateLimits);
+		if ( sourceRateLimit <= 0 && dialogRates.isEmpty() )
+			return;
+		UDPMessageProcessor.admissionControl = new AdmissionControl(AdmissionControl.DEFAULT_TABLE_SIZE, sourceRateLimit, sourceBurstLimit, dialogRates);
+		log.info(String.format("Initialized admission control: %s", UDPMessageProcessor.admissionControl));
+	}
+	
+	private void initOutboundPool() {
+		if ( outboundChannels <= 0 )
+			return;
+		// forwarder is only used if it was requested and its address could be resolved
+		InetAddress forwarder = forwardingRequested != null && forwardingRequested == true ? forwarderInetAddress : null;
+		OutboundChannelPool pool = new OutboundChannelPool(outboundChannels, forwarder, getForwarderPort(), replyFlushDelay, replyBatchSize);
+		try {
+			pool.open();
+			UDPMessageProcessor.outboundPool = pool;
+		} catch (IOException ex) {
+			log.error("Couldn't open outbound datagram channels. Replies will be sent using a new socket for every reply.", ex);
+		}
+	}
+	
 	private synchronized void initSecurity() throws Exception {
 		if ( !isSecurityInitialized ) {
 			CryptoProvider.initialize();
@@ -114,22 +197,113 @@ public class CvUDPTransportService extends UDPTransportService {
 		initServiceRegion();
 		initReadOnlyParameters();
 		initForwardingSettings();
-		UDPMessageProcessor.sessionMgr.initialize();
+		ProcessingContext.initialize();
+		CoarseClock.start(clockResolution);
+		if ( recipientCacheSize > 0 )
+			UDPMessageProcessor.recipientCache = new RecipientCache(recipientCacheSize, RecipientCache.DEFAULT_TIME_TO_LIVE);
+		initAdmissionControl();
+		if ( duplicateWindow > 0 )
+			UDPMessageProcessor.duplicateFilter = new DuplicateFilter(duplicateWindow, duplicateCapacity);
+		if ( MESSAGE_FORMAT_DEFAULT.equals(getMessageFormat()) && RECEIVE_ENGINE_CHANNEL.equals(receiveEngine) )
+			UDPMessageProcessor.cryptoStage = new CryptoStage(getCryptoWorkers());
+		initOutboundPool();
+		int queueDepth = overloadQueueDepth;
+		if ( queueDepth > 0 && !RECEIVE_ENGINE_CHANNEL.equals(receiveEngine) ) {
+			// the DatagramSocket engine queues datagrams in the executor of the transport which doesn't expose its depth
+			log.warn(String.format("Overload queue depth %d is not supported by the %s receive engine and is ignored. Use the overload latency instead.", queueDepth, receiveEngine));
+			queueDepth = 0;
+		}
+		if ( queueDepth > 0 || overloadLatency > 0 )
+			UDPMessageProcessor.loadShedder = new LoadShedder(queueDepth, overloadLatency);
+		if ( replyWorkers > 0 ) {
+			UDPMessageProcessor.replyExecutor = new ReplyExecutor(replyWorkers, replyQueueCapacity);
+			UDPMessageProcessor.replyExecutor.start();
+			if ( UDPMessageProcessor.loadShedder != null )
+				UDPMessageProcessor.loadShedder.addBacklog(UDPMessageProcessor.replyExecutor);
+		}
+		UDPMessageProcessor.sessionMgr.initialize(getSessionConcurrency(), offHeapSessionCapacity);
 		UDPMessageProcessor.receiptReceiver = new SessionReceiptReceiver(getReceiptsTopic());
 		UDPMessageProcessor.receiptReceiver.setSessionMgr(UDPMessageProcessor.sessionMgr);
 		UDPMessageProcessor.receiptReceiver.setForwarderAddress(getForwardInetAddress());
 		UDPMessageProcessor.receiptReceiver.setForwarderPort(getForwarderPort());
+		UDPMessageProcessor.receiptReceiver.setOutboundPool(UDPMessageProcessor.outboundPool);
+		UDPMessageProcessor.receiptReceiver.setRecipientCache(UDPMessageProcessor.recipientCache);
 		try {
 			UDPMessageProcessor.receiptReceiver.initialize();
 		} catch (ReceiptReceiverException ex) {
 			log.error("Couldn't initialize Session Receipt Receiver", ex);
 		}
-		super.execute();
+		if ( RECEIVE_ENGINE_CHANNEL.equals(receiveEngine) )
+			executeChannelReceiver();
+		else
+			super.execute();
+	}
+	
+	private void executeChannelReceiver() {
+		int shards = getListenerShards();
+		if ( shards > 1 && !DatagramChannelReceiver.isReusePortSupported() ) {
+			log.warn(String.format("Listener sharding across %d sockets was requested but SO_REUSEPORT is not supported. Using one socket.", shards));
+			shards = 1;
+		}
+		final boolean reusePort = shards > 1;
+		if ( ingestPipeline ) {
+			if ( getPipelineBulkWorkers() > 0 && !getHeaderPeek() )
+				log.warn(String.format("Pipeline bulk lane with %d workers was requested but header peek is disabled. Not starting the bulk lane.", getPipelineBulkWorkers()));
+			pipeline = new IngestPipeline(this, getPipelineParseWorkers(), getPipelineDecodeWorkers(), getPipelineSessionWorkers(), 
+					getPipelineRespondWorkers(), getPipelineDispatchWorkers(), getBulkLaneWorkers(), getPipelineQueueCapacity());
+			pipeline.start();
+			if ( UDPMessageProcessor.loadShedder != null )
+				UDPMessageProcessor.loadShedder.addBacklog(pipeline);
+		}
+		DatagramChannelReceiver[] receivers = new DatagramChannelReceiver[shards];
+		try {
+			for ( int shard = 0; shard < shards; shard++ ) {
+				receivers[shard] = new DatagramChannelReceiver(this, getPort(), shard, reusePort, getMaxPacketSize(), getReceiveBufferCount(), getReceiveWorkerCount(), getReceiveBatchSize(), pipeline);
+				receivers[shard].open();
+			}
+		} catch (IOException ex) {
+			log.error(String.format("Couldn't open datagram channel on port %d", getPort()), ex);
+			for ( DatagramChannelReceiver receiver : receivers )
+				if ( receiver != null )
+					receiver.terminate();
+			stopPipeline();
+			return;
+		}
+		channelReceivers = receivers;
+		if ( UDPMessageProcessor.loadShedder != null )
+			for ( DatagramChannelReceiver receiver : receivers )
+				UDPMessageProcessor.loadShedder.addBacklog(receiver);
+		// every shard but the first gets its own receive thread, the first one runs in the calling thread
+		for ( int shard = 1; shard < shards; shard++ ) {
+			Thread thread = new Thread(receivers[shard], String.format("%s-%d-shard-%d", DatagramChannelReceiver.class.getSimpleName(), getPort(), shard));
+			thread.setDaemon(true);
+			thread.start();
+		}
+		receivers[0].run();
+	}
+	
+	private void terminateChannelReceiver() {
+		DatagramChannelReceiver[] receivers = channelReceivers;
+		if ( receivers != null ) {
+			for ( DatagramChannelReceiver receiver : receivers )
+				receiver.terminate();
+			channelReceivers = null;
+		}
+		stopPipeline();
+	}
+	
+	private synchronized void stopPipeline() {
+		if ( pipeline != null ) {
+			pipeline.stop();
+			pipeline = null;
+		}
 	}
 	
 	@Override
 	public void dispose() {
+		terminateChannelReceiver();
 		UDPMessageProcessor.sessionMgr.dispose();
+		CoarseClock.stop();
 		if ( UDPMessageProcessor.receiptReceiver != null ) {
 			try {
 				UDPMessageProcessor.receiptReceiver.dispose();
@@ -138,12 +312,43 @@ public class CvUDPTransportService extends UDPTransportService {
 				UDPMessageProcessor.receiptReceiver = null;
 			}
 		}
+		if ( UDPMessageProcessor.recipientCache != null ) {
+			log.info(String.format("Disposing recipient cache: %s", UDPMessageProcessor.recipientCache));
+			UDPMessageProcessor.recipientCache.clear();
+			UDPMessageProcessor.recipientCache = null;
+		}
+		if ( UDPMessageProcessor.admissionControl != null ) {
+			log.info(String.format("Disposing admission control: %s", UDPMessageProcessor.admissionControl));
+			UDPMessageProcessor.admissionControl = null;
+		}
+		if ( UDPMessageProcessor.loadShedder != null ) {
+			log.info(String.format("Disposing load shedder: %s", UDPMessageProcessor.loadShedder));
+			UDPMessageProcessor.loadShedder = null;
+		}
+		if ( UDPMessageProcessor.duplicateFilter != null ) {
+			log.info(String.format("Disposing duplicate filter: %s", UDPMessageProcessor.duplicateFilter));
+			UDPMessageProcessor.duplicateFilter = null;
+		}
+		if ( UDPMessageProcessor.replyExecutor != null ) {
+			UDPMessageProcessor.replyExecutor.stop();
+			UDPMessageProcessor.replyExecutor = null;
+		}
+		if ( UDPMessageProcessor.outboundPool != null ) {
+			UDPMessageProcessor.outboundPool.close();
+			UDPMessageProcessor.outboundPool = null;
+		}
+		if ( UDPMessageProcessor.cryptoStage != null ) {
+			UDPMessageProcessor.cryptoStage.shutdown();
+			UDPMessageProcessor.cryptoStage = null;
+		}
+		ProcessingContext.dispose();
 		disposeSecurity();
 		super.dispose();
 	}
 	
 	@Override
 	public void terminate() {
+		terminateChannelReceiver();
 		MessageCounting.terminate();
 		super.terminate();
 	}
@@ -250,6 +455,301 @@ public class CvUDPTransportService extends UDPTransportService {
 		return this.receiptsTopic;
 	}
 
+	//
+	// Receive engine
+	//
+	
+	@UserConfigured(value=RECEIVE_ENGINE_DEFAULT,
+			flexValidator = { "RegExpValidator expression=" + RECEIVE_ENGINE_REGEX },
+		    description="Engine used to receive datagrams: DatagramSocket (one packet and processor per datagram) or DatagramChannel (pooled direct buffers and reusable workers).")
+	public void setReceiveEngine(String receiveEngine) {
+		this.receiveEngine = receiveEngine;
+	}
+	
+	public String getReceiveEngine() {
+		return receiveEngine;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_RECEIVE_BUFFER_COUNT, description = "Number of pooled direct receive buffers used by the DatagramChannel receive engine", flexValidator = "NumberValidator minValue=1 maxValue=65536")
+	public void setReceiveBufferCount(int receiveBufferCount) {
+		this.receiveBufferCount = receiveBufferCount;
+	}
+	
+	public int getReceiveBufferCount() {
+		return receiveBufferCount;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_RECEIVE_WORKER_COUNT, description = "Number of worker threads used by the DatagramChannel receive engine (0 - one per available processor)", flexValidator = "NumberValidator minValue=0 maxValue=1024")
+	public void setReceiveWorkerCount(int receiveWorkerCount) {
+		this.receiveWorkerCount = receiveWorkerCount;
+	}
+	
+	public int getReceiveWorkerCount() {
+		return receiveWorkerCount > 0 ? receiveWorkerCount : Runtime.getRuntime().availableProcessors();
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_RECEIVE_BATCH_SIZE, description = "Maximum number of datagrams drained from the socket per wakeup and handed to a worker as one batch (DatagramChannel receive engine only)", flexValidator = "NumberValidator minValue=1 maxValue=4096")
+	public void setReceiveBatchSize(int receiveBatchSize) {
+		this.receiveBatchSize = receiveBatchSize;
+	}
+	
+	public int getReceiveBatchSize() {
+		return receiveBatchSize;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_LISTENER_SHARDS, description = "Number of sockets bound to the listen port with SO_REUSEPORT, each with its own receive loop and workers (DatagramChannel receive engine only)", flexValidator = "NumberValidator minValue=1 maxValue=256")
+	public void setListenerShards(int listenerShards) {
+		this.listenerShards = listenerShards;
+	}
+	
+	public int getListenerShards() {
+		return listenerShards;
+	}
+
+	@UserConfigured(value = "false", description = "Process datagrams in a staged pipeline (parse/verify, decode, session, respond, dispatch) with bounded queues between the stages (DatagramChannel receive engine only)")
+	public void setIngestPipeline(boolean ingestPipeline) {
+		this.ingestPipeline = ingestPipeline;
+	}
+	
+	public boolean getIngestPipeline() {
+		return ingestPipeline;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_WORKER_COUNT, description = "Number of parse/verify stage workers of the ingest pipeline (0 - one per available processor)", flexValidator = "NumberValidator minValue=0 maxValue=1024")
+	public void setPipelineParseWorkers(int pipelineParseWorkers) {
+		this.pipelineParseWorkers = pipelineParseWorkers;
+	}
+	
+	public int getPipelineParseWorkers() {
+		return pipelineParseWorkers > 0 ? pipelineParseWorkers : Runtime.getRuntime().availableProcessors();
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_WORKER_COUNT, description = "Number of decode stage workers of the ingest pipeline (0 - one per available processor)", flexValidator = "NumberValidator minValue=0 maxValue=1024")
+	public void setPipelineDecodeWorkers(int pipelineDecodeWorkers) {
+		this.pipelineDecodeWorkers = pipelineDecodeWorkers;
+	}
+	
+	public int getPipelineDecodeWorkers() {
+		return pipelineDecodeWorkers > 0 ? pipelineDecodeWorkers : Runtime.getRuntime().availableProcessors();
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_STAGE_WORKER_COUNT, description = "Number of session stage workers of the ingest pipeline", flexValidator = "NumberValidator minValue=1 maxValue=1024")
+	public void setPipelineSessionWorkers(int pipelineSessionWorkers) {
+		this.pipelineSessionWorkers = pipelineSessionWorkers;
+	}
+	
+	public int getPipelineSessionWorkers() {
+		return pipelineSessionWorkers;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_STAGE_WORKER_COUNT, description = "Number of respond stage workers of the ingest pipeline", flexValidator = "NumberValidator minValue=1 maxValue=1024")
+	public void setPipelineRespondWorkers(int pipelineRespondWorkers) {
+		this.pipelineRespondWorkers = pipelineRespondWorkers;
+	}
+	
+	public int getPipelineRespondWorkers() {
+		return pipelineRespondWorkers;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_STAGE_WORKER_COUNT, description = "Number of dispatch stage workers of the ingest pipeline", flexValidator = "NumberValidator minValue=1 maxValue=1024")
+	public void setPipelineDispatchWorkers(int pipelineDispatchWorkers) {
+		this.pipelineDispatchWorkers = pipelineDispatchWorkers;
+	}
+	
+	public int getPipelineDispatchWorkers() {
+		return pipelineDispatchWorkers;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_BULK_WORKER_COUNT, description = "Number of workers of every stage of the ingest pipeline lane that handles vehicle situation data separately from dialog control messages. Requires header peek. (0 - no separate lane)", flexValidator = "NumberValidator minValue=0 maxValue=1024")
+	public void setPipelineBulkWorkers(int pipelineBulkWorkers) {
+		this.pipelineBulkWorkers = pipelineBulkWorkers;
+	}
+	
+	public int getPipelineBulkWorkers() {
+		return pipelineBulkWorkers;
+	}
+	
+	private int getBulkLaneWorkers() {
+		// messages are routed to the bulk lane by their peeked header, so without header peek it would never receive work
+		return getHeaderPeek() ? getPipelineBulkWorkers() : 0;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_PIPELINE_QUEUE_CAPACITY, description = "Capacity of each per worker queue of the ingest pipeline. A full queue blocks the previous stage.", flexValidator = "NumberValidator minValue=1 maxValue=1048576")
+	public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+		this.pipelineQueueCapacity = pipelineQueueCapacity;
+	}
+	
+	public int getPipelineQueueCapacity() {
+		return pipelineQueueCapacity;
+	}
+	
+	@UserConfigured(value = "false", description = "Classify messages by peeking at their UPER header so out of sequence messages are dropped and vehicle situation data is routed without a full decode. Header layouts are learned from decoded messages and only used once several decodes have confirmed them")
+	public void setHeaderPeek(boolean headerPeek) {
+		this.headerPeek = headerPeek;
+	}
+	
+	public boolean getHeaderPeek() {
+		return headerPeek;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_RECIPIENT_CACHE_SIZE, description = "Maximum number of reply recipients whose encryption key is remembered as resolved or as unresolvable. Replies to a recipient whose key could not be resolved are dropped for a minute (0 - do not remember)", flexValidator = "NumberValidator minValue=0 maxValue=1048576")
+	public void setRecipientCacheSize(int recipientCacheSize) {
+		this.recipientCacheSize = recipientCacheSize;
+	}
+	
+	public int getRecipientCacheSize() {
+		return recipientCacheSize;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_CRYPTO_WORKER_COUNT, description = "Number of threads that verify 1609.2 messages of a received batch in parallel (DatagramChannel receive engine only, 0 - one per available processor)", flexValidator = "NumberValidator minValue=0 maxValue=1024")
+	public void setCryptoWorkers(int cryptoWorkers) {
+		this.cryptoWorkers = cryptoWorkers;
+	}
+	
+	public int getCryptoWorkers() {
+		return cryptoWorkers > 0 ? cryptoWorkers : Runtime.getRuntime().availableProcessors();
+	}
+	
+	@UserConfigured(value = "" + OutboundChannelPool.DEFAULT_CHANNEL_COUNT, description = "Number of pre-opened datagram channels used to send replies (0 - open a new socket for every reply)", flexValidator = "NumberValidator minValue=0 maxValue=256")
+	public void setOutboundChannels(int outboundChannels) {
+		this.outboundChannels = outboundChannels;
+	}
+	
+	public int getOutboundChannels() {
+		return outboundChannels;
+	}
+	
+	@UserConfigured(value = "" + OutboundChannelPool.DEFAULT_FLUSH_DELAY, description = "Maximum time in milliseconds a reply is held back so it can be sent in a batch with other replies (0 - send every reply right away)", flexValidator = "NumberValidator minValue=0 maxValue=1000")
+	public void setReplyFlushDelay(int replyFlushDelay) {
+		this.replyFlushDelay = replyFlushDelay;
+	}
+	
+	public int getReplyFlushDelay() {
+		return replyFlushDelay;
+	}
+	
+	@UserConfigured(value = "" + OutboundChannelPool.DEFAULT_BATCH_SIZE, description = "Maximum number of replies sent in one batch when reply flush delay is set", flexValidator = "NumberValidator minValue=1 maxValue=4096")
+	public void setReplyBatchSize(int replyBatchSize) {
+		this.replyBatchSize = replyBatchSize;
+	}
+	
+	public int getReplyBatchSize() {
+		return replyBatchSize;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_REPLY_WORKER_COUNT, description = "Number of threads that format, sign and send replies (0 - replies are sent by the thread that processed the request)", flexValidator = "NumberValidator minValue=0 maxValue=256")
+	public void setReplyWorkers(int replyWorkers) {
+		this.replyWorkers = replyWorkers;
+	}
+	
+	public int getReplyWorkers() {
+		return replyWorkers;
+	}
+	
+	@UserConfigured(value = "" + ReplyExecutor.DEFAULT_QUEUE_CAPACITY, description = "Maximum number of replies waiting to be sent by each reply thread", flexValidator = "NumberValidator minValue=1 maxValue=65536")
+	public void setReplyQueueCapacity(int replyQueueCapacity) {
+		this.replyQueueCapacity = replyQueueCapacity;
+	}
+	
+	public int getReplyQueueCapacity() {
+		return replyQueueCapacity;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_SOURCE_RATE_LIMIT, description = "Maximum number of packets per second accepted from one source address before 1609.2 parsing (0 - no limit)", flexValidator = "NumberValidator minValue=0 maxValue=1000000")
+	public void setSourceRateLimit(int sourceRateLimit) {
+		this.sourceRateLimit = sourceRateLimit;
+	}
+	
+	public int getSourceRateLimit() {
+		return sourceRateLimit;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_SOURCE_BURST_LIMIT, description = "Maximum number of packets accepted from one source address at once when source rate limit is set", flexValidator = "NumberValidator minValue=1 maxValue=16000")
+	public void setSourceBurstLimit(int sourceBurstLimit) {
+		this.sourceBurstLimit = sourceBurstLimit;
+	}
+	
+	public int getSourceBurstLimit() {
+		return sourceBurstLimit;
+	}
+	
+	@UserConfigured(value = "", description = "Maximum number of packets per second accepted from one source address per dialog type, e.g. vehSitData=100,advSitDataDep=10 (empty - no limit)")
+	public void setDialogRateLimits(String dialogRateLimits) {
+		this.dialogRateLimits = dialogRateLimits != null ? dialogRateLimits : "";
+	}
+	
+	public String getDialogRateLimits() {
+		return dialogRateLimits;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_DUPLICATE_WINDOW, description = "Time window in milliseconds within which identical datagrams from the same sender are discarded as duplicates (0 - duplicates are processed)", flexValidator = "NumberValidator minValue=0 maxValue=600000")
+	public void setDuplicateWindow(int duplicateWindow) {
+		this.duplicateWindow = duplicateWindow;
+	}
+	
+	public int getDuplicateWindow() {
+		return duplicateWindow;
+	}
+	
+	@UserConfigured(value = "" + DuplicateFilter.DEFAULT_CAPACITY, description = "Maximum number of datagrams remembered per duplicate window", flexValidator = "NumberValidator minValue=1 maxValue=16777216")
+	public void setDuplicateCapacity(int duplicateCapacity) {
+		this.duplicateCapacity = duplicateCapacity;
+	}
+	
+	public int getDuplicateCapacity() {
+		return duplicateCapacity;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_OVERLOAD_QUEUE_DEPTH, description = "Number of queued datagrams above which vehicle situation data is shed, above twice this number new dialogs are shed as well (DatagramChannel receive engine only, 0 - not checked)", flexValidator = "NumberValidator minValue=0 maxValue=16777216")
+	public void setOverloadQueueDepth(int overloadQueueDepth) {
+		this.overloadQueueDepth = overloadQueueDepth;
+	}
+	
+	public int getOverloadQueueDepth() {
+		return overloadQueueDepth;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_OVERLOAD_LATENCY, description = "Average time in milliseconds from receiving a datagram to parsing it, including the time it is queued, above which vehicle situation data is shed, above twice this time new dialogs are shed as well (0 - not checked)", flexValidator = "NumberValidator minValue=0 maxValue=600000")
+	public void setOverloadLatency(int overloadLatency) {
+		this.overloadLatency = overloadLatency;
+	}
+	
+	public int getOverloadLatency() {
+		return overloadLatency;
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_SESSION_CONCURRENCY, description = "Number of lock stripes of the session store (0 - one per worker that creates or looks up sessions)", flexValidator = "NumberValidator minValue=0 maxValue=1024")
+	public void setSessionConcurrency(int sessionConcurrency) {
+		this.sessionConcurrency = sessionConcurrency;
+	}
+	
+	public int getSessionConcurrency() {
+		if ( sessionConcurrency > 0 )
+			return sessionConcurrency;
+		// sessions are looked up by the parse workers and created by the session workers of the pipeline, otherwise by the receive workers
+		if ( ingestPipeline && RECEIVE_ENGINE_CHANNEL.equals(receiveEngine) )
+			return getPipelineParseWorkers() + getPipelineSessionWorkers() + getBulkLaneWorkers();
+		return getReceiveWorkerCount();
+	}
+	
+	@UserConfigured(value = "" + DEFAULT_OFF_HEAP_SESSION_CAPACITY, description = "Maximum number of sessions kept in direct memory outside of the heap, sessions beyond it are kept on the heap (0 - all sessions are kept on the heap)", flexValidator = "NumberValidator minValue=0 maxValue=16777216")
+	public void setOffHeapSessionCapacity(int offHeapSessionCapacity) {
+		this.offHeapSessionCapacity = offHeapSessionCapacity;
+	}
+	
+	public int getOffHeapSessionCapacity() {
+		return offHeapSessionCapacity;
+	}
+	
+	@UserConfigured(value = "" + CoarseClock.DEFAULT_RESOLUTION, description = "Resolution in milliseconds of the shared clock used for session and cache expiration (0 - read the system clock every time)", flexValidator = "NumberValidator minValue=0 maxValue=1000")
+	public void setClockResolution(int clockResolution) {
+		this.clockResolution = clockResolution;
+	}
+	
+	public int getClockResolution() {
+		return clockResolution;
+	}
+	
 	//
 	// Enforce CV specific message processor
 	// 
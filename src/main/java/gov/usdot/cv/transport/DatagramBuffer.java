@@ -0,0 +1,40 @@
+package gov.usdot.cv.transport;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable direct receive buffer together with the address and receive time of the datagram it currently holds
+ */
+public class DatagramBuffer {
+
+	public final ByteBuffer buffer;
+	private InetSocketAddress source;
+	private long receiveTime;
+
+	DatagramBuffer(int capacity) {
+		buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	public InetSocketAddress getSource() {
+		return source;
+	}
+
+	/**
+	 * @return System.nanoTime() when the datagram was received
+	 */
+	public long getReceiveTime() {
+		return receiveTime;
+	}
+
+	void setSource(InetSocketAddress source) {
+		this.source = source;
+		this.receiveTime = System.nanoTime();
+	}
+
+	void clear() {
+		buffer.clear();
+		source = null;
+	}
+
+}
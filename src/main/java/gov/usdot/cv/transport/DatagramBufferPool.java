@@ -0,0 +1,40 @@
+package gov.usdot.cv.transport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Fixed size pool of direct datagram receive buffers. All buffers are allocated up front
+ * and {@link #acquire()} blocks while every buffer is in use, which throttles the receive loop
+ * to the speed of the workers instead of allocating more memory.
+ */
+public class DatagramBufferPool {
+
+	private final BlockingQueue<DatagramBuffer> buffers;
+	private final int capacity;
+
+	public DatagramBufferPool(int bufferCount, int bufferSize) {
+		capacity = bufferCount;
+		buffers = new ArrayBlockingQueue<DatagramBuffer>(bufferCount);
+		for ( int i = 0; i < bufferCount; i++ )
+			buffers.add(new DatagramBuffer(bufferSize));
+	}
+
+	public DatagramBuffer acquire() throws InterruptedException {
+		return buffers.take();
+	}
+
+	public void release(DatagramBuffer buffer) {
+		buffer.clear();
+		buffers.offer(buffer);
+	}
+
+	public int getAvailable() {
+		return buffers.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+}
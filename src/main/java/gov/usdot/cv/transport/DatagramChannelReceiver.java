@@ -0,0 +1,285 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.cv.logging.MessageCounting;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Receive engine that reads datagrams from a {@link DatagramChannel} into pooled direct buffers
+ * and hands them to a fixed set of worker threads. Each worker owns one reusable {@link UDPMessageProcessor}
+ * so no per datagram runnable is allocated on the receive path.
+ * On every wakeup the channel is drained of all readily available datagrams (up to the batch size)
+ * and the datagrams are handed to the workers in batches.
+ * <p>
+ * All datagrams from the same source are always handled by the same worker so the messages of a dialog
+ * are processed in the order they were received. The source is the original source from the forwarder header
+ * when there is one, so traffic that arrives through the forwarder is still spread over the workers.
+ * When the listen port is sharded several receivers are bound to the same port with SO_REUSEPORT and
+ * the kernel keeps each flow on one receiver.
+ * <p>
+ * When an {@link IngestPipeline} is given the receiver does not use its own workers. Every datagram is
+ * copied out of its buffer and submitted to the pipeline which blocks the receiver while it is full.
+ */
+public class DatagramChannelReceiver implements Runnable, LoadShedder.Backlog {
+
+	private static final Logger log = Logger.getLogger(DatagramChannelReceiver.class);
+	
+	private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
+
+	private final CvUDPTransportService transportService;
+	private final int port;
+	private final int shard;
+	private final boolean reusePort;
+	private final int maxPacketSize;
+	private final int workerCount;
+	private final int batchSize;
+	private final int bufferCount;
+	private final DatagramBufferPool pool;
+	private final Semaphore inFlight;
+	private final BlockingQueue<List<IngestItem>>[] received;
+	private final IngestPipeline pipeline;
+
+	private Selector selector = null;
+	private DatagramChannel channel = null;
+	private Thread[] workers = null;
+	private volatile boolean terminated = false;
+
+	@SuppressWarnings("unchecked")
+	public DatagramChannelReceiver(CvUDPTransportService transportService, int port, int shard, boolean reusePort, int maxPacketSize, int bufferCount, int workerCount, int batchSize, IngestPipeline pipeline) {
+		this.transportService = transportService;
+		this.port = port;
+		this.shard = shard;
+		this.reusePort = reusePort;
+		this.maxPacketSize = maxPacketSize;
+		this.workerCount = Math.max(1, workerCount);
+		this.batchSize = Math.max(1, Math.min(batchSize, bufferCount));
+		this.bufferCount = Math.max(1, bufferCount);
+		// datagrams are copied out of their buffers as soon as they are read so a batch worth of buffers is enough
+		this.pool = new DatagramBufferPool(this.batchSize, maxPacketSize);
+		// bounds the datagrams that are queued to or being processed by the workers
+		this.inFlight = new Semaphore(this.bufferCount);
+		this.pipeline = pipeline;
+		this.received = new BlockingQueue[this.workerCount];
+		for ( int i = 0; i < this.workerCount; i++ )
+			this.received[i] = new ArrayBlockingQueue<List<IngestItem>>(this.bufferCount);
+	}
+	
+	/**
+	 * Checks whether several datagram channels can be bound to the same port
+	 * @return true if SO_REUSEPORT is available on this platform
+	 */
+	public static boolean isReusePortSupported() {
+		if ( SO_REUSEPORT == null )
+			return false;
+		DatagramChannel probe = null;
+		try {
+			probe = DatagramChannel.open();
+			return probe.supportedOptions().contains(SO_REUSEPORT);
+		} catch (IOException ex) {
+			return false;
+		} finally {
+			if ( probe != null ) {
+				try {
+					probe.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+	
+	// SO_REUSEPORT was added to StandardSocketOptions in Java 9 so look it up at runtime
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> getReusePortOption() {
+		try {
+			Field field = StandardSocketOptions.class.getField("SO_REUSEPORT");
+			return (SocketOption<Boolean>)field.get(null);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Opens the channel and binds it to the listen port
+	 * @throws IOException if the channel can not be opened or bound
+	 */
+	public void open() throws IOException {
+		selector = Selector.open();
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		if ( reusePort ) {
+			if ( SO_REUSEPORT == null || !channel.supportedOptions().contains(SO_REUSEPORT) )
+				throw new IOException("SO_REUSEPORT socket option is not supported on this platform");
+			channel.setOption(SO_REUSEPORT, true);
+		}
+		channel.socket().bind(new InetSocketAddress(port));
+		channel.register(selector, SelectionKey.OP_READ);
+		log.info(String.format("Opened datagram channel shard %d on port %d with %d buffers of %d bytes, %d workers and batch size %d", 
+				shard, port, bufferCount, maxPacketSize, workerCount, batchSize));
+	}
+
+	/**
+	 * Runs the receive loop in the calling thread until {@link #terminate()} is called
+	 */
+	public void run() {
+		startWorkers();
+		try {
+			while ( !terminated ) {
+				selector.select();
+				selector.selectedKeys().clear();
+				drain();
+			}
+		} catch (ClosedSelectorException ex) {
+			if ( !terminated )
+				log.error(String.format("Datagram selector on port %d was closed unexpectedly", port), ex);
+		} catch (ClosedChannelException ex) {
+			if ( !terminated )
+				log.error(String.format("Datagram channel on port %d was closed unexpectedly", port), ex);
+		} catch (InterruptedException ex) {
+			log.warn(String.format("Datagram receiver on port %d was interrupted", port));
+		} catch (IOException ex) {
+			log.error(String.format("Couldn't receive datagram on port %d", port), ex);
+		} finally {
+			terminate();
+			stopWorkers();
+		}
+	}
+
+	/**
+	 * Reads all readily available datagrams (up to batch size) from the channel without blocking
+	 * and queues them to the workers, one batch per worker, keeping each source on the same worker.
+	 * Blocks while the workers already hold as many datagrams as there are buffers.
+	 */
+	private void drain() throws IOException, InterruptedException {
+		@SuppressWarnings("unchecked")
+		List<IngestItem>[] batches = new List[workerCount];
+		for ( int count = 0; count < batchSize; count++ ) {
+			if ( pipeline == null ) {
+				if ( count == 0 )
+					inFlight.acquire();
+				else if ( !inFlight.tryAcquire() )
+					break;	// queue the datagrams read so far instead of holding them back while the workers catch up
+			}
+			DatagramBuffer datagram = pool.acquire();
+			SocketAddress source = channel.receive(datagram.buffer);
+			if ( source == null ) {
+				pool.release(datagram);
+				if ( pipeline == null )
+					inFlight.release();
+				break;
+			}
+			datagram.buffer.flip();
+			datagram.setSource((InetSocketAddress)source);
+			// the only copy of the datagram: out of the direct buffer into an exact array
+			IngestItem item = IngestItem.copyOf(datagram);
+			pool.release(datagram);
+			if ( item == null ) {
+				if ( pipeline == null )
+					inFlight.release();
+				continue;
+			}
+			if ( pipeline != null ) {
+				MessageCounting.incrementTotal(CvUDPTransportService.loggerIndex);
+				pipeline.submit(item);
+				continue;
+			}
+			final int worker = (item.getAffinity() & Integer.MAX_VALUE) % workerCount;
+			if ( batches[worker] == null )
+				batches[worker] = new ArrayList<IngestItem>(batchSize);
+			batches[worker].add(item);
+		}
+		for ( int worker = 0; worker < workerCount; worker++ )
+			if ( batches[worker] != null )
+				received[worker].put(batches[worker]);
+	}
+
+	/**
+	 * @return number of received datagrams that are queued to or being processed by the workers
+	 */
+	public int getQueueDepth() {
+		return bufferCount - inFlight.availablePermits();
+	}
+
+	/**
+	 * Stops the receive loop and closes the channel
+	 */
+	public void terminate() {
+		terminated = true;
+		if ( selector != null ) {
+			try {
+				selector.close();
+			} catch (IOException ex) {
+				log.warn(String.format("Couldn't close datagram selector on port %d", port), ex);
+			}
+		}
+		if ( channel != null ) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				log.warn(String.format("Couldn't close datagram channel on port %d", port), ex);
+			}
+		}
+	}
+
+	private void startWorkers() {
+		if ( pipeline != null )
+			return;
+		workers = new Thread[workerCount];
+		for ( int i = 0; i < workerCount; i++ ) {
+			workers[i] = new Thread(new Worker(received[i]), String.format("%s-%d-%d-worker-%d", getClass().getSimpleName(), port, shard, i));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	private void stopWorkers() {
+		if ( workers == null )
+			return;
+		for ( Thread worker : workers )
+			worker.interrupt();
+		workers = null;
+	}
+
+	private class Worker implements Runnable {
+
+		private final UDPMessageProcessor processor = new UDPMessageProcessor(transportService);
+		private final BlockingQueue<List<IngestItem>> queue;
+		
+		Worker(BlockingQueue<List<IngestItem>> queue) {
+			this.queue = queue;
+		}
+
+		public void run() {
+			while ( !terminated ) {
+				List<IngestItem> batch;
+				try {
+					batch = queue.take();
+				} catch (InterruptedException ex) {
+					break;
+				}
+				try {
+					processor.process(batch);
+				} finally {
+					inFlight.release(batch.size());
+				}
+			}
+		}
+	}
+
+}
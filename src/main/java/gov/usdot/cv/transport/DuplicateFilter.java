@@ -0,0 +1,159 @@
+package gov.usdot.cv.transport;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time windowed filter of duplicate datagrams. A 64-bit fingerprint of the sender and the datagram bytes
+ * is kept in one of two generations of fixed size open addressing tables. The generations are rotated
+ * every window so a datagram is recognized as a duplicate if an identical one was seen within the window
+ * (and possibly up to two windows ago). Tables are updated with compare-and-set so the filter can be
+ * shared by all workers. Fingerprints that don't fit into a full table are not remembered, so a full
+ * table lets duplicates through rather than discarding datagrams.
+ * <p>
+ * Datagrams are compared by fingerprint only, so a new datagram is discarded by mistake when its fingerprint
+ * collides with the fingerprint of a different datagram remembered in either table. With n remembered
+ * fingerprints this happens with a probability of about n/2^64 per datagram.
+ */
+public class DuplicateFilter {
+
+	public static final int DEFAULT_CAPACITY = 64*1024;
+
+	private static final int MAX_PROBES = 16;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long window;
+	private final int mask;
+
+	private volatile AtomicLongArray current;
+	private volatile AtomicLongArray previous;
+	private volatile long rotateAt;
+
+	private final AtomicLong duplicateCount = new AtomicLong();
+	private final AtomicLong overflowCount = new AtomicLong();
+
+	/**
+	 * Creates duplicate filter
+	 * @param window time window in milliseconds
+	 * @param capacity maximum number of fingerprints kept per window, rounded up to a power of two
+	 */
+	public DuplicateFilter(long window, int capacity) {
+		int size = 1;
+		// tables are kept at most half full to keep the probe sequences short
+		while ( size < 2*capacity && size < (1 << 30) )
+			size <<= 1;
+		this.window = window*1000000L;
+		this.mask = size - 1;
+		this.current = new AtomicLongArray(size);
+		this.previous = new AtomicLongArray(size);
+		this.rotateAt = System.nanoTime() + this.window;
+	}
+
+	/**
+	 * Records the datagram and checks whether an identical one has been received from the same sender within the window
+	 * @param packet received datagram
+	 * @param address address of the sender
+	 * @param port port of the sender
+	 * @return true if the datagram is a duplicate and should be discarded
+	 */
+	public boolean isDuplicate(PacketView packet, InetAddress address, int port) {
+		rotate();
+		final long fingerprint = fingerprint(packet, address, port);
+		final AtomicLongArray previous = this.previous;
+		if ( contains(previous, fingerprint) ) {
+			duplicateCount.incrementAndGet();
+			return true;
+		}
+		final AtomicLongArray current = this.current;
+		int index = (int)(fingerprint ^ (fingerprint >>> 32)) & mask;
+		for ( int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & mask ) {
+			final long slot = current.get(index);
+			if ( slot == fingerprint ) {
+				duplicateCount.incrementAndGet();
+				return true;
+			}
+			if ( slot == 0 ) {
+				if ( current.compareAndSet(index, 0, fingerprint) )
+					return false;
+				if ( current.get(index) == fingerprint ) {
+					duplicateCount.incrementAndGet();
+					return true;
+				}
+			}
+		}
+		overflowCount.incrementAndGet();
+		return false;
+	}
+
+	public long getDuplicateCount() {
+		return duplicateCount.get();
+	}
+
+	public long getOverflowCount() {
+		return overflowCount.get();
+	}
+
+	private boolean contains(AtomicLongArray table, long fingerprint) {
+		int index = (int)(fingerprint ^ (fingerprint >>> 32)) & mask;
+		for ( int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & mask ) {
+			final long slot = table.get(index);
+			if ( slot == fingerprint )
+				return true;
+			if ( slot == 0 )
+				return false;
+		}
+		return false;
+	}
+
+	private void rotate() {
+		if ( System.nanoTime() - rotateAt < 0 )
+			return;
+		synchronized(this) {
+			final long now = System.nanoTime();
+			if ( now - rotateAt < 0 )
+				return;
+			// the retiring table is cleared and reused as the current one instead of allocating new tables
+			final AtomicLongArray retiring = previous;
+			// a table that is older than two windows can't hold duplicates any more
+			if ( now - rotateAt >= window )
+				clear(current);
+			previous = current;
+			clear(retiring);
+			current = retiring;
+			rotateAt = now + window;
+		}
+	}
+
+	private static void clear(AtomicLongArray table) {
+		for ( int i = 0, length = table.length(); i < length; i++ )
+			if ( table.get(i) != 0 )
+				table.lazySet(i, 0);
+	}
+
+	static long fingerprint(PacketView packet, InetAddress address, int port) {
+		long hash = FNV_OFFSET;
+		if ( address != null )
+			for ( byte b : address.getAddress() )
+				hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+		hash = (hash ^ (port & 0xffff)) * FNV_PRIME;
+		final byte[] buffer = packet.getBuffer();
+		final int end = packet.getOffset() + packet.getLength();
+		for ( int i = packet.getOffset(); i < end; i++ )
+			hash = (hash ^ (buffer[i] & 0xff)) * FNV_PRIME;
+		// length is mixed in as well and zero is reserved for empty slots
+		hash ^= packet.getLength();
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash != 0 ? hash : 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { window = %d ms; capacity = %d; duplicateCount = %d; overflowCount = %d }",
+				getClass().getSimpleName(), window/1000000L, (mask + 1)/2, duplicateCount.get(), overflowCount.get());
+	}
+
+}
@@ -0,0 +1,60 @@
+package gov.usdot.cv.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Growable encode buffer that is reused by the thread that owns it. The PER coder writes directly
+ * into the buffer and the encoding is handed on as a {@link ByteBuffer} view of the backing array
+ * so that it is not copied. The view is only valid until the owning thread uses the buffer again.
+ */
+public class EncodeBuffer extends ByteArrayOutputStream {
+
+	private static final int DEFAULT_SIZE = 512;
+
+	// buffers that grew beyond this size while encoding an unusually large message are not kept
+	private static final int MAX_RETAINED_SIZE = 64*1024;
+
+	private static final ThreadLocal<EncodeBuffer> buffers = new ThreadLocal<EncodeBuffer>();
+
+	public EncodeBuffer() {
+		super(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Returns encode buffer of the calling thread that has been reset and is ready for use
+	 * @return empty reusable encode buffer
+	 */
+	public static EncodeBuffer get() {
+		EncodeBuffer buffer = buffers.get();
+		if ( buffer == null || buffer.buf.length > MAX_RETAINED_SIZE ) {
+			buffer = new EncodeBuffer();
+			buffers.set(buffer);
+		}
+		buffer.reset();
+		return buffer;
+	}
+
+	/**
+	 * Returns view of the bytes written so far without copying them
+	 * @return byte buffer that wraps the backing array of this encode buffer
+	 */
+	public ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(buf, 0, count);
+	}
+
+	/**
+	 * Returns remaining bytes of the buffer as an array. The backing array is returned as is
+	 * if it holds exactly the remaining bytes, otherwise the bytes are copied.
+	 * @param buffer byte buffer to convert
+	 * @return array with the remaining bytes of the buffer
+	 */
+	public static byte[] toArray(ByteBuffer buffer) {
+		if ( buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length )
+			return buffer.array();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+}
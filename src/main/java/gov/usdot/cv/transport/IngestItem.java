@@ -0,0 +1,99 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.inet.InetPacket;
+import gov.usdot.cv.common.inet.InetPoint;
+import gov.usdot.cv.session.Session;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import com.oss.asn1.AbstractData;
+
+/**
+ * State of one received datagram as it moves through the processing stages
+ * (parse/verify, decode, session, respond and dispatch) of {@link UDPMessageProcessor}
+ */
+public class IngestItem {
+
+	final PacketView packet;
+	final InetAddress address;
+	final int port;
+	final int affinity;
+	final long receiveTime;
+
+	// parse/verify stage
+	InetPacket inetPacket = null;
+	PacketView payload = null;
+	byte[] certBytes = null;
+	byte[] certID8 = null;
+	SemiHeader header = null;
+
+	// decode stage
+	AbstractData pdu = null;
+
+	// session stage
+	Session session = null;
+	InetPoint destination = null;
+	byte[] recipient = null;
+	SemiDialogID dialogID = null;
+
+	public IngestItem(PacketView packet, InetAddress address, int port) {
+		this(packet, address, port, System.nanoTime());
+	}
+
+	/**
+	 * Creates item for a received datagram
+	 * @param packet received datagram
+	 * @param address address of the datagram sender
+	 * @param port port of the datagram sender
+	 * @param receiveTime System.nanoTime() when the datagram was received
+	 */
+	public IngestItem(PacketView packet, InetAddress address, int port, long receiveTime) {
+		this.packet = packet;
+		this.address = address;
+		this.port = port;
+		this.receiveTime = receiveTime;
+		// behind the forwarder every datagram comes from the forwarder address so the affinity is taken from
+		// the original source in the forwarder header, which is also the source the sessions are keyed by
+		this.inetPacket = parseInetPacket(packet, address, port);
+		final InetPoint source = inetPacket != null ? inetPacket.getPoint() : null;
+		this.affinity = source != null && source.address != null ? 31*Arrays.hashCode(source.address) + source.port :
+			31*(address != null ? address.hashCode() : 0) + port;
+	}
+
+	private static InetPacket parseInetPacket(PacketView packet, InetAddress address, int port) {
+		if ( packet == null || packet.isEmpty() )
+			return null;
+		try {
+			return new InetPacket(address, port, packet.toArray());
+		} catch (Exception ex) {
+			// the parse stage parses the packet again and reports the invalid forwarder header
+			return null;
+		}
+	}
+
+	/**
+	 * Copies received datagram out of its pooled buffer so the buffer can be reused right away
+	 * @param datagram received datagram positioned at the start of its data
+	 * @return new item or null if the datagram is empty
+	 */
+	public static IngestItem copyOf(DatagramBuffer datagram) {
+		final int length = datagram.buffer.remaining();
+		if ( length <= 0 )
+			return null;
+		byte[] data = new byte[length];
+		datagram.buffer.get(data);
+		InetSocketAddress source = datagram.getSource();
+		return new IngestItem(new PacketView(data), source.getAddress(), source.getPort(), datagram.getReceiveTime());
+	}
+
+	/**
+	 * @return hash of the original datagram source that is used to keep all datagrams of a source on the same worker
+	 */
+	public int getAffinity() {
+		return affinity;
+	}
+
+}
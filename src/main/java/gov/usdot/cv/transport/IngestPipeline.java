@@ -0,0 +1,207 @@
+package gov.usdot.cv.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Staged ingest pipeline: parse/verify, decode, session, respond and dispatch. Every stage has its
+ * own workers and bounded queues so slow 1609.2 crypto or a slow JMS broker is visible as queue depth
+ * and backpressure of the stage in question rather than as unbounded executor growth.
+ * <p>
+ * After the parse stage the messages are split into two lanes that have their own stages and workers.
+ * Vehicle situation data, which is sessionless and arrives in bulk, goes to the bulk lane while dialog
+ * control messages (service requests, data, acceptances) go to the control lane so they are not queued
+ * behind a flood of situation data and their dialogs do not time out. The lane is chosen using the
+ * message header peeked by the parse stage; messages whose header could not be peeked use the control lane.
+ */
+public class IngestPipeline implements LoadShedder.Backlog {
+
+	private static final Logger log = Logger.getLogger(IngestPipeline.class);
+
+	private static final long reportingIntervalSec = 60L;
+
+	private final IngestStage<IngestItem> parseStage;
+	private final IngestStage<IngestItem> controlLane;
+	private final IngestStage<IngestItem> bulkLane;
+	private final IngestStage<?>[] stages;
+
+	private ScheduledExecutorService reporter = null;
+
+	public IngestPipeline(final CvUDPTransportService transportService, int parseWorkers, int decodeWorkers, int sessionWorkers, 
+			int respondWorkers, int dispatchWorkers, int queueCapacity) {
+		this(transportService, parseWorkers, decodeWorkers, sessionWorkers, respondWorkers, dispatchWorkers, 0, queueCapacity);
+	}
+
+	/**
+	 * Creates ingest pipeline
+	 * @param transportService transport service that received the datagrams
+	 * @param parseWorkers number of parse/verify workers
+	 * @param decodeWorkers number of decode workers of the control lane
+	 * @param sessionWorkers number of session workers of the control lane
+	 * @param respondWorkers number of respond workers of the control lane
+	 * @param dispatchWorkers number of dispatch workers of the control lane
+	 * @param bulkWorkers number of workers of every stage of the bulk lane (0 - no bulk lane, all messages use the control lane)
+	 * @param queueCapacity capacity of the queue of each worker
+	 */
+	public IngestPipeline(final CvUDPTransportService transportService, int parseWorkers, int decodeWorkers, int sessionWorkers, 
+			int respondWorkers, int dispatchWorkers, int bulkWorkers, int queueCapacity) {
+		List<IngestStage<?>> stages = new ArrayList<IngestStage<?>>();
+		controlLane = createLane(transportService, "", decodeWorkers, sessionWorkers, respondWorkers, dispatchWorkers, queueCapacity, stages);
+		bulkLane = bulkWorkers > 0 ? createLane(transportService, "bulk-", bulkWorkers, bulkWorkers, bulkWorkers, bulkWorkers, queueCapacity, stages) : null;
+		parseStage = new IngestStage<IngestItem>("parse", parseWorkers, queueCapacity, new ProcessorHandlerFactory(transportService, controlLane) {
+			boolean handle(UDPMessageProcessor processor, IngestItem item) throws Exception {
+				return processor.parse(item);
+			}
+			IngestStage<IngestItem> next(IngestItem item) {
+				final SemiHeader header = item.header;
+				return bulkLane != null && header != null && header.isVehSitData() ? bulkLane : controlLane;
+			}
+		});
+		stages.add(0, parseStage);
+		this.stages = stages.toArray(new IngestStage<?>[stages.size()]);
+	}
+
+	/**
+	 * Creates decode, session, respond and dispatch stages of a lane
+	 * @return first stage of the lane
+	 */
+	private static IngestStage<IngestItem> createLane(CvUDPTransportService transportService, String prefix, int decodeWorkers, int sessionWorkers, 
+			int respondWorkers, int dispatchWorkers, int queueCapacity, List<IngestStage<?>> stages) {
+		IngestStage<IngestItem> dispatchStage = new IngestStage<IngestItem>(prefix + "dispatch", dispatchWorkers, queueCapacity, new ProcessorHandlerFactory(transportService) {
+			boolean handle(UDPMessageProcessor processor, IngestItem item) throws Exception {
+				processor.dispatch(item);
+				return false;
+			}
+		});
+		IngestStage<IngestItem> respondStage = new IngestStage<IngestItem>(prefix + "respond", respondWorkers, queueCapacity, new ProcessorHandlerFactory(transportService, dispatchStage) {
+			boolean handle(UDPMessageProcessor processor, IngestItem item) throws Exception {
+				return processor.respond(item);
+			}
+		});
+		IngestStage<IngestItem> sessionStage = new IngestStage<IngestItem>(prefix + "session", sessionWorkers, queueCapacity, new ProcessorHandlerFactory(transportService, respondStage) {
+			boolean handle(UDPMessageProcessor processor, IngestItem item) throws Exception {
+				return processor.session(item);
+			}
+		});
+		IngestStage<IngestItem> decodeStage = new IngestStage<IngestItem>(prefix + "decode", decodeWorkers, queueCapacity, new ProcessorHandlerFactory(transportService, sessionStage) {
+			boolean handle(UDPMessageProcessor processor, IngestItem item) throws Exception {
+				return processor.decode(item);
+			}
+		});
+		stages.add(decodeStage);
+		stages.add(sessionStage);
+		stages.add(respondStage);
+		stages.add(dispatchStage);
+		return decodeStage;
+	}
+
+	public synchronized void start() {
+		for ( int i = stages.length - 1; i >= 0; i-- )
+			stages[i].start();
+		if ( reporter == null ) {
+			reporter = Executors.newSingleThreadScheduledExecutor();
+			reporter.scheduleAtFixedRate(
+				new Runnable() {
+					public void run() {
+						report();
+					}
+				}, reportingIntervalSec, reportingIntervalSec, TimeUnit.SECONDS);
+		}
+		log.info("Started ingest pipeline: " + this);
+	}
+
+	public synchronized void stop() {
+		if ( reporter != null ) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+		for ( IngestStage<?> stage : stages )
+			stage.stop();
+		log.info("Stopped ingest pipeline: " + this);
+	}
+
+	/**
+	 * Submits received datagram to the first stage of the pipeline blocking while that stage is full
+	 * @param item received datagram
+	 * @throws InterruptedException if interrupted while waiting for queue space
+	 */
+	public void submit(IngestItem item) throws InterruptedException {
+		parseStage.submit(item, item.getAffinity());
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		for ( IngestStage<?> stage : stages )
+			depth += stage.getQueueDepth();
+		return depth;
+	}
+
+	public IngestStage<?>[] getStages() {
+		return stages;
+	}
+
+	public void report() {
+		log.info("Ingest pipeline: " + this);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for ( IngestStage<?> stage : stages ) {
+			if ( sb.length() > 0 )
+				sb.append("; ");
+			sb.append(stage);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Creates one {@link UDPMessageProcessor} per stage worker and forwards items
+	 * that the stage accepted to the next stage (if any)
+	 */
+	private static abstract class ProcessorHandlerFactory implements IngestStage.HandlerFactory<IngestItem> {
+
+		private final CvUDPTransportService transportService;
+		private final IngestStage<IngestItem> next;
+
+		ProcessorHandlerFactory(CvUDPTransportService transportService) {
+			this(transportService, null);
+		}
+
+		ProcessorHandlerFactory(CvUDPTransportService transportService, IngestStage<IngestItem> next) {
+			this.transportService = transportService;
+			this.next = next;
+		}
+
+		/**
+		 * @return true if the item should be passed to the next stage
+		 */
+		abstract boolean handle(UDPMessageProcessor processor, IngestItem item) throws Exception;
+
+		/**
+		 * @return stage the item that was accepted should be passed to
+		 */
+		IngestStage<IngestItem> next(IngestItem item) {
+			return next;
+		}
+
+		public IngestStage.Handler<IngestItem> createHandler() {
+			final UDPMessageProcessor processor = new UDPMessageProcessor(transportService);
+			return new IngestStage.Handler<IngestItem>() {
+				public void handle(IngestItem item) throws Exception {
+					if ( ProcessorHandlerFactory.this.handle(processor, item) ) {
+						final IngestStage<IngestItem> stage = next(item);
+						if ( stage != null )
+							stage.submit(item, item.getAffinity());
+					}
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package gov.usdot.cv.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * One stage of the ingest pipeline: a fixed number of workers, each with its own bounded queue.
+ * Items are assigned to a worker by affinity so the items of one source are handled in order.
+ * When the queue of a worker is full the submitter blocks, so a slow stage shows up as queue depth
+ * and backpressure on the stages in front of it instead of as unbounded memory growth.
+ */
+public class IngestStage<T> {
+
+	private static final Logger log = Logger.getLogger(IngestStage.class);
+
+	public interface Handler<T> {
+		void handle(T item) throws Exception;
+	}
+
+	public interface HandlerFactory<T> {
+		/**
+		 * Creates handler for one worker; the handler is only ever called by that worker thread
+		 */
+		Handler<T> createHandler();
+	}
+
+	private final String name;
+	private final HandlerFactory<T> handlerFactory;
+	private final BlockingQueue<T>[] queues;
+	private final int queueCapacity;
+
+	private final AtomicLong processedCount = new AtomicLong(0);
+	private final AtomicLong failedCount = new AtomicLong(0);
+	private final AtomicLong backpressureCount = new AtomicLong(0);
+
+	private Thread[] workers = null;
+	private volatile boolean stopped = false;
+
+	@SuppressWarnings("unchecked")
+	public IngestStage(String name, int workerCount, int queueCapacity, HandlerFactory<T> handlerFactory) {
+		this.name = name;
+		this.handlerFactory = handlerFactory;
+		this.queueCapacity = Math.max(1, queueCapacity);
+		this.queues = new BlockingQueue[Math.max(1, workerCount)];
+		for ( int i = 0; i < queues.length; i++ )
+			queues[i] = new ArrayBlockingQueue<T>(this.queueCapacity);
+	}
+
+	public synchronized void start() {
+		if ( workers != null )
+			return;
+		stopped = false;
+		workers = new Thread[queues.length];
+		for ( int i = 0; i < queues.length; i++ ) {
+			workers[i] = new Thread(new Worker(queues[i]), String.format("%s-%s-%d", getClass().getSimpleName(), name, i));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Stops the workers and discards the items that are still queued
+	 * @return number of discarded items
+	 */
+	public synchronized int stop() {
+		stopped = true;
+		if ( workers != null ) {
+			for ( Thread worker : workers )
+				worker.interrupt();
+			workers = null;
+		}
+		final List<T> discarded = new ArrayList<T>();
+		for ( BlockingQueue<T> queue : queues )
+			queue.drainTo(discarded);
+		return discarded.size();
+	}
+
+	/**
+	 * Queues item to the worker selected by affinity blocking while that worker's queue is full
+	 * @param item item to process
+	 * @param affinity items with the same affinity are processed in submission order
+	 * @throws InterruptedException if interrupted while waiting for queue space
+	 */
+	public void submit(T item, int affinity) throws InterruptedException {
+		BlockingQueue<T> queue = queues[(affinity & Integer.MAX_VALUE) % queues.length];
+		if ( !queue.offer(item) ) {
+			backpressureCount.incrementAndGet();
+			queue.put(item);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWorkerCount() {
+		return queues.length;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity * queues.length;
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		for ( BlockingQueue<T> queue : queues )
+			depth += queue.size();
+		return depth;
+	}
+
+	/**
+	 * @return number of items the handler processed without an error
+	 */
+	public long getProcessedCount() {
+		return processedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * @return number of submissions that had to wait for queue space
+	 */
+	public long getBackpressureCount() {
+		return backpressureCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { workers = %d; queue depth = %d of %d; processed = %d; failed = %d; backpressure = %d }",
+				name, getWorkerCount(), getQueueDepth(), getQueueCapacity(), getProcessedCount(), getFailedCount(), getBackpressureCount());
+	}
+
+	private class Worker implements Runnable {
+
+		private final BlockingQueue<T> queue;
+		private final Handler<T> handler;
+
+		Worker(BlockingQueue<T> queue) {
+			this.queue = queue;
+			this.handler = handlerFactory.createHandler();
+		}
+
+		public void run() {
+			while ( !stopped ) {
+				T item;
+				try {
+					item = queue.take();
+				} catch (InterruptedException ex) {
+					break;
+				}
+				try {
+					handler.handle(item);
+					processedCount.incrementAndGet();
+				} catch (InterruptedException ex) {
+					break;
+				} catch (Exception ex) {
+					failedCount.incrementAndGet();
+					log.error(String.format("Stage '%s' couldn't process item", name), ex);
+				}
+			}
+		}
+	}
+
+}
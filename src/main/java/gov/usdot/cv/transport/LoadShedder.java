@@ -0,0 +1,152 @@
+package gov.usdot.cv.transport;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Overload detection and shedding policy. The service is overloaded when the number of datagrams waiting
+ * in the queues of the receive engine or the time from receiving a datagram to knowing its type exceeds
+ * the configured thresholds. While overloaded, vehicle situation data is shed first. Once either measure
+ * exceeds twice its threshold, messages that would start new dialogs are shed as well. Messages that
+ * belong to dialogs in flight (data, confirmations and acceptances) are never shed so dialogs that have
+ * already started can complete.
+ */
+public class LoadShedder {
+
+	private static final Logger log = Logger.getLogger(LoadShedder.class);
+
+	public static final int LEVEL_NORMAL = 0;
+	public static final int LEVEL_SHED_BULK = 1;
+	public static final int LEVEL_SHED_NEW_DIALOGS = 2;
+
+	private static final long EVALUATION_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * Queue of the receive engine whose depth counts toward the backlog
+	 */
+	public interface Backlog {
+		int getQueueDepth();
+	}
+
+	private final int depthThreshold;
+	private final long latencyThreshold;
+	private final CopyOnWriteArrayList<Backlog> backlogs = new CopyOnWriteArrayList<Backlog>();
+
+	// exponentially weighted moving average of the latency in nanoseconds
+	private final AtomicLong latency = new AtomicLong();
+	private final AtomicLong evaluateAt = new AtomicLong(System.nanoTime());
+	private volatile int level = LEVEL_NORMAL;
+
+	private final AtomicLong bulkShedCount = new AtomicLong();
+	private final AtomicLong dialogShedCount = new AtomicLong();
+
+	/**
+	 * Creates load shedder
+	 * @param depthThreshold number of queued datagrams above which the service is overloaded (0 - queue depth is not checked)
+	 * @param latencyThreshold latency in milliseconds above which the service is overloaded (0 - latency is not checked)
+	 */
+	public LoadShedder(int depthThreshold, int latencyThreshold) {
+		this.depthThreshold = Math.max(depthThreshold, 0);
+		this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(Math.max(latencyThreshold, 0));
+	}
+
+	public void addBacklog(Backlog backlog) {
+		backlogs.add(backlog);
+	}
+
+	public void removeBacklog(Backlog backlog) {
+		backlogs.remove(backlog);
+	}
+
+	/**
+	 * Records how long it took from receiving a datagram to knowing its type
+	 * @param nanos latency in nanoseconds
+	 */
+	public void recordLatency(long nanos) {
+		final long average = latency.get();
+		// lost updates between racing workers only make the average a little less smooth
+		latency.set(average + ((nanos - average) >> 3));
+	}
+
+	/**
+	 * Decides whether the message should be shed
+	 * @param header header of the message
+	 * @return true if the message should be dropped
+	 */
+	public boolean shouldShed(SemiHeader header) {
+		if ( header == null )
+			return false;
+		final int level = getLevel();
+		if ( level == LEVEL_NORMAL )
+			return false;
+		if ( header.isVehSitData() ) {
+			bulkShedCount.incrementAndGet();
+			return true;
+		}
+		if ( level >= LEVEL_SHED_NEW_DIALOGS && header.isDialogStart() ) {
+			dialogShedCount.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return current overload level, reevaluated at most every 100 milliseconds
+	 */
+	public int getLevel() {
+		final long now = System.nanoTime();
+		final long at = evaluateAt.get();
+		if ( now - at >= 0 && evaluateAt.compareAndSet(at, now + EVALUATION_INTERVAL) ) {
+			final int current = evaluate();
+			if ( current != level ) {
+				log.warn(String.format("Overload level changed from %d to %d: %s", level, current, this));
+				level = current;
+			}
+		}
+		return level;
+	}
+
+	private int evaluate() {
+		int depthLevel = LEVEL_NORMAL;
+		if ( depthThreshold > 0 ) {
+			final int depth = getQueueDepth();
+			depthLevel = depth > 2L*depthThreshold ? LEVEL_SHED_NEW_DIALOGS : depth > depthThreshold ? LEVEL_SHED_BULK : LEVEL_NORMAL;
+		}
+		int latencyLevel = LEVEL_NORMAL;
+		if ( latencyThreshold > 0 ) {
+			final long average = latency.get();
+			latencyLevel = average > 2*latencyThreshold ? LEVEL_SHED_NEW_DIALOGS : average > latencyThreshold ? LEVEL_SHED_BULK : LEVEL_NORMAL;
+		}
+		return Math.max(depthLevel, latencyLevel);
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		for ( Backlog backlog : backlogs )
+			depth += backlog.getQueueDepth();
+		return depth;
+	}
+
+	public long getLatency() {
+		return TimeUnit.NANOSECONDS.toMillis(latency.get());
+	}
+
+	public long getBulkShedCount() {
+		return bulkShedCount.get();
+	}
+
+	public long getDialogShedCount() {
+		return dialogShedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { level = %d; queue depth = %d (threshold %d); latency = %d ms (threshold %d ms); bulk shed = %d; new dialogs shed = %d }",
+				getClass().getSimpleName(), level, getQueueDepth(), depthThreshold, getLatency(), TimeUnit.NANOSECONDS.toMillis(latencyThreshold),
+				bulkShedCount.get(), dialogShedCount.get());
+	}
+
+}
@@ -0,0 +1,439 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.cv.common.inet.InetPacket;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Long lived pool of pre-opened non-blocking datagram channels that is used to send all replies
+ * (service responses, data confirmations and data receipts) either directly to the client or via the IPv6/IPv4 forwarder.
+ * A reply that none of the channels accepts because their send buffers are full is sent on an extra blocking channel
+ * which waits for buffer space, so replies are not dropped under load any more than with a blocking socket.
+ * <p>
+ * The forward header that the forwarder expects in front of the payload only depends on the destination so it is
+ * built once per destination. The header is only cached after it has been verified that the bundle built by
+ * {@link InetPacket} is the header followed by the unmodified payload; otherwise every bundle is built by InetPacket.
+ * <p>
+ * When a flush delay is configured replies are not sent by the calling thread but queued and sent by a flusher thread 
+ * in batches of up to the batch size. A batch is flushed at the latest flush delay after its first reply was queued and 
+ * replies of a batch that go to the same target (typically the forwarder) are sent back to back on the same channel.
+ * When the queue is full the caller waits for space, so replies are sent in the order they were queued.
+ */
+public class OutboundChannelPool {
+
+	private static final Logger log = Logger.getLogger(OutboundChannelPool.class);
+
+	public static final int DEFAULT_CHANNEL_COUNT = 4;
+	public static final int DEFAULT_FLUSH_DELAY = 0;	// send replies right away
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	private static final int MAX_CACHED_HEADERS = 4096;
+	private static final int MAX_PENDING_REPLIES = 8192;
+	private static final long FULL_QUEUE_WAIT = 100;	// milliseconds
+	private static final byte[] NOT_CACHEABLE = new byte[0];
+	private static final byte[] PROBE_PAYLOAD_1 = new byte[] { 0x01 };
+	private static final byte[] PROBE_PAYLOAD_2 = new byte[] { 0x7f, (byte)0x80, 0x00, (byte)0xff, 0x55 };
+
+	private final DatagramChannel[] channels;
+	private volatile DatagramChannel blockingChannel = null;
+	private final AtomicInteger next = new AtomicInteger(0);
+	private final InetSocketAddress forwarder;
+	private final ConcurrentHashMap<DestinationKey, byte[]> forwardHeaders = new ConcurrentHashMap<DestinationKey, byte[]>();
+
+	private final AtomicLong sentCount = new AtomicLong(0);
+	private final AtomicLong forwardedCount = new AtomicLong(0);
+	private final AtomicLong droppedCount = new AtomicLong(0);
+	private final AtomicLong blockedCount = new AtomicLong(0);
+	private final AtomicLong flushCount = new AtomicLong(0);
+
+	private final long flushDelay;
+	private final int batchSize;
+	private final BlockingQueue<Reply> pending;
+	private volatile Thread flusher = null;
+
+	/**
+	 * Creates outbound channel pool that sends replies right away
+	 * @param channelCount number of channels to open
+	 * @param forwarderAddress address of the IPv6/IPv4 forwarder or null if replies are never forwarded
+	 * @param forwarderPort port of the IPv6/IPv4 forwarder
+	 */
+	public OutboundChannelPool(int channelCount, InetAddress forwarderAddress, int forwarderPort) {
+		this(channelCount, forwarderAddress, forwarderPort, DEFAULT_FLUSH_DELAY, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates outbound channel pool
+	 * @param channelCount number of channels to open
+	 * @param forwarderAddress address of the IPv6/IPv4 forwarder or null if replies are never forwarded
+	 * @param forwarderPort port of the IPv6/IPv4 forwarder
+	 * @param flushDelay maximum time in milliseconds a reply is held back to be sent in a batch (0 - send right away)
+	 * @param batchSize maximum number of replies sent in one batch
+	 */
+	public OutboundChannelPool(int channelCount, InetAddress forwarderAddress, int forwarderPort, int flushDelay, int batchSize) {
+		this.channels = new DatagramChannel[Math.max(1, channelCount)];
+		this.forwarder = forwarderAddress != null ? new InetSocketAddress(forwarderAddress, forwarderPort) : null;
+		this.flushDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushDelay));
+		this.batchSize = Math.max(1, batchSize);
+		this.pending = this.flushDelay > 0 ? new ArrayBlockingQueue<Reply>(MAX_PENDING_REPLIES) : null;
+	}
+
+	/**
+	 * Opens all channels of the pool
+	 * @throws IOException if a channel can not be opened
+	 */
+	public synchronized void open() throws IOException {
+		try {
+			for ( int i = 0; i < channels.length; i++ ) {
+				channels[i] = DatagramChannel.open();
+				channels[i].configureBlocking(false);
+				channels[i].socket().bind(null);
+			}
+			blockingChannel = DatagramChannel.open();
+			blockingChannel.socket().bind(null);
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
+		if ( pending != null ) {
+			flusher = new Thread(new Flusher(), getClass().getSimpleName() + "-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+		log.info(String.format("Opened %d outbound datagram channels%s%s", channels.length, 
+				forwarder != null ? String.format(", forwarder: %s", forwarder) : "",
+				pending != null ? String.format(", flush delay: %d ms, batch size: %d", TimeUnit.NANOSECONDS.toMillis(flushDelay), batchSize) : ""));
+	}
+
+	public synchronized void close() {
+		if ( flusher != null ) {
+			flusher.interrupt();
+			try {
+				flusher.join(1000);
+			} catch (InterruptedException ignored) {
+			}
+			flusher = null;
+			// send what is left
+			List<Reply> batch = new ArrayList<Reply>();
+			pending.drainTo(batch);
+			flush(batch);
+		}
+		for ( int i = 0; i < channels.length; i++ ) {
+			if ( channels[i] != null ) {
+				try {
+					channels[i].close();
+				} catch (IOException ex) {
+					log.warn("Couldn't close outbound datagram channel", ex);
+				}
+				channels[i] = null;
+			}
+		}
+		if ( blockingChannel != null ) {
+			try {
+				blockingChannel.close();
+			} catch (IOException ex) {
+				log.warn("Couldn't close outbound datagram channel", ex);
+			}
+			blockingChannel = null;
+		}
+		forwardHeaders.clear();
+		log.info(String.format("Closed outbound datagram channels: %s", this));
+	}
+
+	/**
+	 * @return true if replies can be sent via the IPv6/IPv4 forwarder
+	 */
+	public boolean isForwarding() {
+		return forwarder != null;
+	}
+
+	/**
+	 * Sends payload directly to the destination. Blocks only while the send buffers of all channels or the queue of pending replies are full
+	 * @param destination where to send the payload
+	 * @param payload payload to send
+	 * @return true if the datagram was sent or queued to be sent
+	 * @throws UnknownHostException if the destination address is invalid
+	 */
+	public boolean send(InetPoint destination, byte[] payload) throws UnknownHostException {
+		return send(destination, ByteBuffer.wrap(payload), false);
+	}
+
+	/**
+	 * Sends remaining bytes of the payload buffer directly to the destination. Blocks only while the send buffers of all channels or the queue of pending replies are full.
+	 * The buffer may be reused by the caller once this method returns.
+	 * @param destination where to send the payload
+	 * @param payload payload to send
+	 * @return true if the datagram was sent or queued to be sent
+	 * @throws UnknownHostException if the destination address is invalid
+	 */
+	public boolean send(InetPoint destination, ByteBuffer payload) throws UnknownHostException {
+		return send(destination, payload, true);
+	}
+
+	private boolean send(InetPoint destination, ByteBuffer payload, boolean shared) throws UnknownHostException {
+		log.debug(String.format("Sending directly to destination: %s", destination));
+		if ( !send(new InetSocketAddress(destination.getInetAddress(), destination.port), payload, shared) )
+			return false;
+		sentCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Sends payload to the destination via the IPv6/IPv4 forwarder. Blocks only while the send buffers of all channels or the queue of pending replies are full
+	 * @param destination where the forwarder should send the payload
+	 * @param payload payload to send
+	 * @return true if the datagram was sent or queued to be sent
+	 */
+	public boolean forward(InetPoint destination, byte[] payload) {
+		return forward(destination, ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Sends remaining bytes of the payload buffer to the destination via the IPv6/IPv4 forwarder. Blocks only while the send buffers of all channels or the queue of pending replies are full.
+	 * The buffer may be reused by the caller once this method returns.
+	 * @param destination where the forwarder should send the payload
+	 * @param payload payload to send
+	 * @return true if the datagram was sent or queued to be sent
+	 */
+	public boolean forward(InetPoint destination, ByteBuffer payload) {
+		assert(forwarder != null);
+		log.debug(String.format("Forwarding to %s for destination: %s", forwarder, destination));
+		byte[] header = getForwardHeader(destination);
+		byte[] bundle;
+		if ( header != NOT_CACHEABLE ) {
+			bundle = Arrays.copyOf(header, header.length + payload.remaining());
+			payload.duplicate().get(bundle, header.length, payload.remaining());
+		} else {
+			bundle = new InetPacket(destination, EncodeBuffer.toArray(payload)).getBundle();
+		}
+		// the bundle is a new array so it can be queued as is
+		if ( !send(forwarder, ByteBuffer.wrap(bundle), false) )
+			return false;
+		forwardedCount.incrementAndGet();
+		return true;
+	}
+
+	private boolean send(InetSocketAddress target, ByteBuffer datagram, boolean shared) {
+		if ( pending != null && flusher != null ) {
+			// a buffer that the caller is going to reuse has to be copied before it is queued
+			final Reply reply = new Reply(target, shared ? ByteBuffer.wrap(EncodeBuffer.toArray(datagram)) : datagram);
+			try {
+				// sending a reply right away when the queue is full would overtake the queued replies to the same target,
+				// so the caller waits for the flusher unless the pool is being closed
+				while ( flusher != null )
+					if ( pending.offer(reply, FULL_QUEUE_WAIT, TimeUnit.MILLISECONDS) )
+						return true;
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				log.warn(String.format("Interrupted while queuing datagram to %s. Sending it right away.", target));
+			}
+		}
+		return sendNow(target, datagram, next.getAndIncrement() & Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Sends the datagram on the channel at start or, if its send buffer is full, on the next channel that accepts it
+	 */
+	private boolean sendNow(InetSocketAddress target, ByteBuffer datagram, int start) {
+		// try every channel once; a channel with a full send buffer does not accept the datagram
+		for ( int i = 0; i < channels.length; i++ ) {
+			DatagramChannel channel = channels[(start + i) % channels.length];
+			if ( channel == null )
+				break;
+			try {
+				if ( channel.send(datagram, target) > 0 )
+					return true;
+			} catch (IOException ex) {
+				log.error(String.format("Couldn't send datagram to %s", target), ex);
+			}
+		}
+		// every send buffer is full so wait for space rather than drop the reply
+		final DatagramChannel channel = blockingChannel;
+		if ( channel != null ) {
+			try {
+				if ( channel.send(datagram, target) > 0 ) {
+					blockedCount.incrementAndGet();
+					return true;
+				}
+			} catch (IOException ex) {
+				log.error(String.format("Couldn't send datagram to %s", target), ex);
+			}
+		}
+		droppedCount.incrementAndGet();
+		log.warn(String.format("Dropped outbound datagram to %s", target));
+		return false;
+	}
+
+	/**
+	 * Sends a batch of replies grouping the replies that go to the same target on the same channel
+	 */
+	private void flush(List<Reply> batch) {
+		if ( batch.isEmpty() )
+			return;
+		Map<InetSocketAddress, List<ByteBuffer>> targets = new LinkedHashMap<InetSocketAddress, List<ByteBuffer>>();
+		for ( Reply reply : batch ) {
+			List<ByteBuffer> datagrams = targets.get(reply.target);
+			if ( datagrams == null ) {
+				datagrams = new ArrayList<ByteBuffer>();
+				targets.put(reply.target, datagrams);
+			}
+			datagrams.add(reply.datagram);
+		}
+		for ( Map.Entry<InetSocketAddress, List<ByteBuffer>> entry : targets.entrySet() ) {
+			final int channel = next.getAndIncrement() & Integer.MAX_VALUE;
+			for ( ByteBuffer datagram : entry.getValue() )
+				sendNow(entry.getKey(), datagram, channel);
+		}
+		flushCount.incrementAndGet();
+	}
+
+	private byte[] getForwardHeader(InetPoint destination) {
+		final DestinationKey key = new DestinationKey(destination);
+		byte[] header = forwardHeaders.get(key);
+		if ( header == null ) {
+			header = buildForwardHeader(destination);
+			if ( forwardHeaders.size() >= MAX_CACHED_HEADERS )
+				forwardHeaders.clear();
+			forwardHeaders.put(key, header);
+		}
+		return header;
+	}
+
+	private static byte[] buildForwardHeader(InetPoint destination) {
+		byte[] bundle1 = new InetPacket(destination, PROBE_PAYLOAD_1).getBundle();
+		byte[] bundle2 = new InetPacket(destination, PROBE_PAYLOAD_2).getBundle();
+		if ( bundle1 == null || bundle2 == null )
+			return NOT_CACHEABLE;
+		final int headerLength = bundle1.length - PROBE_PAYLOAD_1.length;
+		if ( headerLength < 0 || bundle2.length - PROBE_PAYLOAD_2.length != headerLength ||
+			 !Arrays.equals(PROBE_PAYLOAD_1, Arrays.copyOfRange(bundle1, headerLength, bundle1.length)) ||
+			 !Arrays.equals(PROBE_PAYLOAD_2, Arrays.copyOfRange(bundle2, headerLength, bundle2.length)) ) {
+			log.debug(String.format("Forward bundle for destination %s is not a fixed header followed by the payload", destination));
+			return NOT_CACHEABLE;
+		}
+		byte[] header = Arrays.copyOf(bundle1, headerLength);
+		if ( !Arrays.equals(header, Arrays.copyOf(bundle2, headerLength)) ) {
+			log.debug(String.format("Forward header for destination %s depends on the payload", destination));
+			return NOT_CACHEABLE;
+		}
+		return header;
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getForwardedCount() {
+		return forwardedCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return number of datagrams that were sent on the blocking channel because every send buffer was full
+	 */
+	public long getBlockedCount() {
+		return blockedCount.get();
+	}
+
+	/**
+	 * @return number of reply batches sent by the flusher
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { channels = %d; sent = %d; forwarded = %d; blocked = %d; dropped = %d; flushes = %d; cached headers = %d }",
+				getClass().getSimpleName(), channels.length, getSentCount(), getForwardedCount(), getBlockedCount(), getDroppedCount(), getFlushCount(), forwardHeaders.size());
+	}
+
+	private static class Reply {
+		final InetSocketAddress target;
+		final ByteBuffer datagram;
+
+		Reply(InetSocketAddress target, ByteBuffer datagram) {
+			this.target = target;
+			this.datagram = datagram;
+		}
+	}
+
+	private class Flusher implements Runnable {
+		public void run() {
+			List<Reply> batch = new ArrayList<Reply>(batchSize);
+			try {
+				while ( !Thread.currentThread().isInterrupted() ) {
+					batch.add(pending.take());
+					final long deadline = System.nanoTime() + flushDelay;
+					while ( batch.size() < batchSize ) {
+						// take what is already queued without waiting and only wait for more until the deadline
+						if ( pending.drainTo(batch, batchSize - batch.size()) > 0 )
+							continue;
+						final long remaining = deadline - System.nanoTime();
+						if ( remaining <= 0 )
+							break;
+						Reply reply = pending.poll(remaining, TimeUnit.NANOSECONDS);
+						if ( reply == null )
+							break;
+						batch.add(reply);
+					}
+					flush(batch);
+					batch.clear();
+				}
+			} catch (InterruptedException ex) {
+				flush(batch);
+			}
+		}
+	}
+
+	private static class DestinationKey {
+		private final byte[] address;
+		private final int port;
+		private final boolean forward;
+		private final int hashCode;
+
+		DestinationKey(InetPoint destination) {
+			this.address = destination.address;
+			this.port = destination.port;
+			this.forward = destination.forward;
+			this.hashCode = 31*(31*Arrays.hashCode(address) + port) + (forward ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if ( this == obj )
+				return true;
+			if ( !(obj instanceof DestinationKey) )
+				return false;
+			DestinationKey other = (DestinationKey)obj;
+			return port == other.port && forward == other.forward && Arrays.equals(address, other.address);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package gov.usdot.cv.transport;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Read only view (buffer, offset and length) of a received datagram or of a part of it.
+ * The view is passed through forwarder header parsing, 1609.2 unwrapping and UPER decoding
+ * so the bytes are only materialized as a separate array when an API requires an exact array
+ * and the view does not already span its whole backing buffer.
+ */
+public final class PacketView {
+
+	private final byte[] buffer;
+	private final int offset;
+	private final int length;
+
+	public PacketView(byte[] buffer) {
+		this(buffer, 0, buffer != null ? buffer.length : 0);
+	}
+
+	public PacketView(byte[] buffer, int offset, int length) {
+		if ( buffer == null ) {
+			if ( offset != 0 || length != 0 )
+				throw new IllegalArgumentException("Offset and length of a view of a null buffer must be zero");
+		} else if ( offset < 0 || length < 0 || offset > buffer.length - length ) {
+			throw new IllegalArgumentException(String.format("Invalid view offset %d and length %d for buffer of length %d", offset, length, buffer.length));
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	/**
+	 * Returns byte at the index relative to the start of the view
+	 * @param index index of the byte within the view
+	 * @return byte value
+	 */
+	public byte get(int index) {
+		if ( index < 0 || index >= length )
+			throw new IndexOutOfBoundsException(String.format("Index %d is out of view bounds [0, %d)", index, length));
+		return buffer[offset + index];
+	}
+
+	/**
+	 * Creates a view of a part of this view without copying
+	 * @param from start of the part relative to the start of this view
+	 * @param count length of the part
+	 * @return view of the part
+	 */
+	public PacketView slice(int from, int count) {
+		if ( from < 0 || count < 0 || from > length - count )
+			throw new IndexOutOfBoundsException(String.format("Slice [%d, %d) is out of view bounds [0, %d)", from, from + count, length));
+		return new PacketView(buffer, offset + from, count);
+	}
+
+	/**
+	 * @return true if the view spans the whole backing buffer
+	 */
+	public boolean isExact() {
+		return buffer == null || (offset == 0 && length == buffer.length);
+	}
+
+	/**
+	 * Returns the bytes of the view as an exact array. The backing buffer itself is returned when
+	 * the view spans all of it, otherwise the bytes are copied.
+	 * @return bytes of the view; must be treated as read only
+	 */
+	public byte[] toArray() {
+		return isExact() ? buffer : Arrays.copyOfRange(buffer, offset, offset + length);
+	}
+
+	/**
+	 * Computes digest of the bytes of the view without copying them
+	 * @param messageDigest digest to use
+	 * @return digest value
+	 */
+	public byte[] digest(MessageDigest messageDigest) {
+		messageDigest.reset();
+		if ( length > 0 )
+			messageDigest.update(buffer, offset, length);
+		return messageDigest.digest();
+	}
+
+	public String toHexString() {
+		return buffer != null ? Hex.encodeHexString(toArray()) : "<null>";
+	}
+
+}
@@ -0,0 +1,119 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.J2735;
+import gov.usdot.cv.security.crypto.CryptoProvider;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.oss.asn1.Coder;
+import com.oss.asn1.ControlTableNotFoundException;
+
+/**
+ * Thread confined processing state (PER coder, digest, crypto provider and encode buffer)
+ * that is created once per worker thread and reused for every packet that thread processes.
+ * J2735 is initialized once by {@link #initialize()} and released by {@link #dispose()}
+ * which also retires all contexts created so far.
+ */
+public class ProcessingContext {
+
+	private static final Logger log = Logger.getLogger(ProcessingContext.class);
+
+	private static boolean traceEnabled = log.isTraceEnabled();
+
+	static private final String DIGEST_ALGORITHM_NAME = "SHA-256";
+
+	private static boolean isInitialized = false;
+	private static final AtomicInteger generation = new AtomicInteger(0);
+
+	private static final ThreadLocal<ProcessingContext> contexts = new ThreadLocal<ProcessingContext>();
+
+	private final int contextGeneration;
+	private final Coder coder;
+	private final MessageDigest messageDigest;
+	private final CryptoProvider cryptoProvider;
+
+	private ProcessingContext(int contextGeneration) {
+		this.contextGeneration = contextGeneration;
+		this.cryptoProvider = new CryptoProvider();
+		this.coder = J2735.getPERUnalignedCoder();
+		if ( coder != null && traceEnabled ) {
+			coder.enableEncoderDebugging();
+			coder.enableDecoderDebugging();
+		}
+		MessageDigest digest = null;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM_NAME);
+		} catch (NoSuchAlgorithmException e) {
+			log.error(String.format("Couldn't instantiate digest algorithm %s", DIGEST_ALGORITHM_NAME));
+		}
+		this.messageDigest = digest;
+	}
+
+	/**
+	 * Initializes J2735 for all processing contexts. Safe to call more than once.
+	 */
+	public static synchronized void initialize() {
+		if ( isInitialized )
+			return;
+		try {
+			J2735.initialize();
+			isInitialized = true;
+		} catch (ControlTableNotFoundException ex) {
+			log.error("Couldn't initialize J2735 parser", ex);
+		} catch (com.oss.asn1.InitializationException ex) {
+			log.error("Couldn't initialize J2735 parser", ex);
+		}
+	}
+
+	/**
+	 * Retires all existing processing contexts and deinitializes J2735
+	 */
+	public static synchronized void dispose() {
+		generation.incrementAndGet();
+		if ( isInitialized ) {
+			J2735.deinitialize();
+			isInitialized = false;
+		}
+	}
+
+	/**
+	 * Returns processing context for the calling thread creating one if necessary
+	 * @return processing context that is confined to the calling thread
+	 */
+	public static ProcessingContext get() {
+		final int currentGeneration = generation.get();
+		ProcessingContext context = contexts.get();
+		if ( context == null || context.contextGeneration != currentGeneration ) {
+			initialize();
+			context = new ProcessingContext(currentGeneration);
+			contexts.set(context);
+			log.debug(String.format("Created processing context for thread '%s'", Thread.currentThread().getName()));
+		}
+		return context;
+	}
+
+	public Coder getCoder() {
+		return coder;
+	}
+
+	public MessageDigest getMessageDigest() {
+		return messageDigest;
+	}
+
+	public CryptoProvider getCryptoProvider() {
+		return cryptoProvider;
+	}
+
+	/**
+	 * Returns encode buffer that has been reset and is ready for use
+	 * @return empty reusable encode buffer
+	 */
+	public EncodeBuffer getSink() {
+		return EncodeBuffer.get();
+	}
+
+}
@@ -0,0 +1,176 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.cv.session.CoarseClock;
+import gov.usdot.cv.session.SessionMgr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers, by certID8, whether the encryption key of a reply recipient can be resolved by the security library.
+ * <p>
+ * A recipient is resolved once it has sent a message signed with its certificate or once a reply to it has been
+ * encrypted. A recipient is unresolvable when encrypting a reply to it failed although its key was never resolved,
+ * since encrypting for such a recipient fails after a full certificate lookup every time. Replies to unresolvable
+ * recipients skip the lookup and are dropped for as long as a meta session lives, so the cache is off unless
+ * configured. Receipts are always encrypted with a full lookup. Encryption failures for resolved recipients are
+ * not caused by the key lookup, so they are never remembered and a transient crypto error doesn't affect later replies.
+ * Both kinds of entries are bounded by the maximum size and expire with the meta session lifetime.
+ */
+public class RecipientCache {
+
+	public static final int DEFAULT_MAX_SIZE = 4096;
+	public static final long DEFAULT_TIME_TO_LIVE = SessionMgr.DEFAULT_META_SESSION_TTL;
+
+	private static final int CERT_ID8_LENGTH = 8;
+
+	private final int maxSize;
+	private final long timeToLive;
+	private final ConcurrentHashMap<Long, Long> resolved = new ConcurrentHashMap<Long, Long>();
+	private final ConcurrentHashMap<Long, Long> unresolved = new ConcurrentHashMap<Long, Long>();
+
+	private final AtomicLong skippedCount = new AtomicLong(0);
+	private final AtomicLong unresolvedCount = new AtomicLong(0);
+
+	public RecipientCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+	}
+
+	/**
+	 * Custom constructor
+	 * @param maxSize maximum number of remembered recipients of each kind
+	 * @param timeToLive time in milliseconds a recipient is remembered
+	 */
+	public RecipientCache(int maxSize, long timeToLive) {
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Checks whether the recipient's key is known to be unresolvable
+	 * @param certID8 recipient certificate digest
+	 * @return true if encryption for the recipient should not be attempted
+	 */
+	public boolean isUnresolvable(byte[] certID8) {
+		if ( certID8 == null || certID8.length != CERT_ID8_LENGTH || unresolved.isEmpty() )
+			return false;
+		if ( !isLive(unresolved, toKey(certID8)) )
+			return false;
+		skippedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Checks whether the recipient's key has been resolved
+	 * @param certID8 recipient certificate digest
+	 * @return true if the recipient's key has been resolved recently
+	 */
+	public boolean isResolved(byte[] certID8) {
+		return certID8 != null && certID8.length == CERT_ID8_LENGTH && isLive(resolved, toKey(certID8));
+	}
+
+	/**
+	 * Remembers that encrypting a reply for the recipient failed. The recipient is only remembered as unresolvable
+	 * if its key has not been resolved before, otherwise the failure was not caused by resolving the key.
+	 * @param certID8 recipient certificate digest
+	 * @return true if the recipient is now remembered as unresolvable
+	 */
+	public boolean markUnresolvable(byte[] certID8) {
+		if ( certID8 == null || certID8.length != CERT_ID8_LENGTH || isResolved(certID8) )
+			return false;
+		if ( !put(unresolved, toKey(certID8)) )
+			return false;
+		unresolvedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Remembers that the recipient's key is available, either because the recipient sent a message signed with its
+	 * certificate or because a reply to it has been encrypted
+	 * @param certID8 recipient certificate digest
+	 */
+	public void markResolved(byte[] certID8) {
+		if ( certID8 == null || certID8.length != CERT_ID8_LENGTH )
+			return;
+		final Long key = toKey(certID8);
+		if ( !unresolved.isEmpty() )
+			unresolved.remove(key);
+		final Long expirationTime = resolved.get(key);
+		// refresh the entry at most a few times per lifetime instead of on every reply
+		if ( expirationTime == null || expirationTime - CoarseClock.currentTimeMillis() < timeToLive/2 )
+			put(resolved, key);
+	}
+
+	public void clear() {
+		resolved.clear();
+		unresolved.clear();
+	}
+
+	/**
+	 * @return number of recipients remembered as unresolvable
+	 */
+	public int size() {
+		return unresolved.size();
+	}
+
+	/**
+	 * @return number of recipients remembered as resolved
+	 */
+	public int getResolvedSize() {
+		return resolved.size();
+	}
+
+	/**
+	 * @return number of replies that skipped encryption because the recipient was known to be unresolvable
+	 */
+	public long getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	public long getUnresolvedCount() {
+		return unresolvedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { size = %d of %d; resolved = %d; unresolved = %d; skipped = %d }",
+				getClass().getSimpleName(), size(), maxSize, getResolvedSize(), getUnresolvedCount(), getSkippedCount());
+	}
+
+	private boolean isLive(ConcurrentHashMap<Long, Long> entries, Long key) {
+		final Long expirationTime = entries.get(key);
+		if ( expirationTime == null )
+			return false;
+		if ( CoarseClock.currentTimeMillis() > expirationTime ) {
+			entries.remove(key, expirationTime);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean put(ConcurrentHashMap<Long, Long> entries, Long key) {
+		if ( entries.size() >= maxSize )
+			purge(entries);
+		if ( entries.size() >= maxSize && !entries.containsKey(key) )
+			return false;
+		entries.put(key, CoarseClock.currentTimeMillis() + timeToLive);
+		return true;
+	}
+
+	private static void purge(ConcurrentHashMap<Long, Long> entries) {
+		final long now = CoarseClock.currentTimeMillis();
+		for ( Long key : entries.keySet() ) {
+			Long expirationTime = entries.get(key);
+			if ( expirationTime != null && now > expirationTime )
+				entries.remove(key, expirationTime);
+		}
+	}
+
+	private static Long toKey(byte[] certID8) {
+		long key = 0;
+		for ( int i = 0; i < CERT_ID8_LENGTH; i++ )
+			key = (key << 8) | (certID8[i] & 0xff);
+		return key;
+	}
+
+}
@@ -0,0 +1,100 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Executes replies (formatting, signing/encrypting and sending) on its own threads so ingest workers
+ * do not wait for reply crypto. Replies are assigned to a thread by destination so replies to the same
+ * client are sent in the order they were produced. The per-thread queues are bounded and a full queue
+ * blocks the ingest worker that produced the reply.
+ */
+public class ReplyExecutor implements LoadShedder.Backlog {
+
+	private static final Logger log = Logger.getLogger(ReplyExecutor.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	public static final long DRAIN_TIMEOUT = 1000;	// milliseconds
+
+	private final IngestStage<Runnable> stage;
+
+	/**
+	 * Creates reply executor
+	 * @param threadCount number of reply threads
+	 * @param queueCapacity capacity of the queue of each reply thread
+	 */
+	public ReplyExecutor(int threadCount, int queueCapacity) {
+		stage = new IngestStage<Runnable>("reply", threadCount, queueCapacity, new IngestStage.HandlerFactory<Runnable>() {
+			public IngestStage.Handler<Runnable> createHandler() {
+				return new IngestStage.Handler<Runnable>() {
+					public void handle(Runnable reply) {
+						reply.run();
+					}
+				};
+			}
+		});
+	}
+
+	public void start() {
+		stage.start();
+		log.info(String.format("Started reply executor: %s", stage));
+	}
+
+	/**
+	 * Stops the reply threads after waiting up to {@link #DRAIN_TIMEOUT} milliseconds for the queued replies to be sent
+	 */
+	public void stop() {
+		final long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+		try {
+			while ( stage.getQueueDepth() > 0 && System.currentTimeMillis() < deadline )
+				Thread.sleep(10);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		final int discarded = stage.stop();
+		if ( discarded > 0 )
+			log.warn(String.format("Discarded %d queued replies when stopping reply executor", discarded));
+		log.info(String.format("Stopped reply executor: %s", stage));
+	}
+
+	/**
+	 * Queues reply for execution
+	 * @param destination reply destination
+	 * @param reply reply to execute
+	 */
+	public void execute(InetPoint destination, Runnable reply) {
+		final int affinity = destination != null ? 31*Arrays.hashCode(destination.address) + destination.port : 0;
+		try {
+			stage.submit(reply, affinity);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			log.warn(String.format("Interrupted while queuing reply to %s. Sending it right away.", destination));
+			reply.run();
+		}
+	}
+
+	public int getQueueDepth() {
+		return stage.getQueueDepth();
+	}
+
+	public long getCompletedCount() {
+		return stage.getProcessedCount();
+	}
+
+	public long getFailedCount() {
+		return stage.getFailedCount();
+	}
+
+	public long getBackpressureCount() {
+		return stage.getBackpressureCount();
+	}
+
+	@Override
+	public String toString() {
+		return stage.toString();
+	}
+
+}
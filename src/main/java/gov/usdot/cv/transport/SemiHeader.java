@@ -0,0 +1,121 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.AdvisorySituationData;
+import gov.usdot.asn1.generated.j2735.semi.DataAcceptance;
+import gov.usdot.asn1.generated.j2735.semi.DataConfirmation;
+import gov.usdot.asn1.generated.j2735.semi.DataRequest;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.IntersectionSituationData;
+import gov.usdot.asn1.generated.j2735.semi.IntersectionSituationDataAcceptance;
+import gov.usdot.asn1.generated.j2735.semi.ObjectDiscoveryDataRequest;
+import gov.usdot.asn1.generated.j2735.semi.ObjectRegistrationData;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.asn1.generated.j2735.semi.ServiceRequest;
+import gov.usdot.asn1.generated.j2735.semi.VehSitDataMessage;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.oss.asn1.AbstractData;
+
+/**
+ * Leading fields (dialogID, seqID, groupID and requestID) that all SEMI dialog messages start with
+ */
+public class SemiHeader {
+
+	public final Class<? extends AbstractData> type;
+	public final SemiDialogID dialogID;
+	public final SemiSequenceID seqID;
+	public final GroupID groupID;
+	public final TemporaryID requestID;
+
+	public SemiHeader(Class<? extends AbstractData> type, SemiDialogID dialogID, SemiSequenceID seqID, GroupID groupID, TemporaryID requestID) {
+		this.type = type;
+		this.dialogID = dialogID;
+		this.seqID = seqID;
+		this.groupID = groupID;
+		this.requestID = requestID;
+	}
+
+	/**
+	 * Extracts the header of a decoded message
+	 * @param pdu decoded message
+	 * @return message header or null if the message is not a SEMI dialog message with groupID and requestID
+	 */
+	public static SemiHeader of(AbstractData pdu) {
+		if ( pdu instanceof VehSitDataMessage ) {
+			VehSitDataMessage msg = (VehSitDataMessage)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof ServiceRequest ) {
+			ServiceRequest msg = (ServiceRequest)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof DataRequest ) {
+			DataRequest msg = (DataRequest)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof ObjectDiscoveryDataRequest ) {
+			ObjectDiscoveryDataRequest msg = (ObjectDiscoveryDataRequest)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof DataConfirmation ) {
+			DataConfirmation msg = (DataConfirmation)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof DataAcceptance ) {
+			DataAcceptance msg = (DataAcceptance)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof IntersectionSituationDataAcceptance ) {
+			IntersectionSituationDataAcceptance msg = (IntersectionSituationDataAcceptance)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof IntersectionSituationData ) {
+			IntersectionSituationData msg = (IntersectionSituationData)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof AdvisorySituationData ) {
+			AdvisorySituationData msg = (AdvisorySituationData)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		} else if ( pdu instanceof ObjectRegistrationData ) {
+			ObjectRegistrationData msg = (ObjectRegistrationData)pdu;
+			return create(pdu, msg.getDialogID(), msg.getSeqID(), msg.getGroupID(), msg.getRequestID());
+		}
+		return null;
+	}
+
+	private static SemiHeader create(AbstractData pdu, SemiDialogID dialogID, SemiSequenceID seqID, GroupID groupID, TemporaryID requestID) {
+		if ( dialogID == null || groupID == null || requestID == null )
+			return null;
+		return new SemiHeader(pdu.getClass(), dialogID, seqID, groupID, requestID);
+	}
+
+	/**
+	 * @return true if the message can only be accepted as part of an existing session (see SessionMgr.findSession)
+	 */
+	public boolean isSessionRequired() {
+		return type == DataConfirmation.class || type == DataAcceptance.class || type == IntersectionSituationDataAcceptance.class ||
+			   type == IntersectionSituationData.class || type == AdvisorySituationData.class || type == ObjectRegistrationData.class;
+	}
+
+	/**
+	 * @return true if the message starts a new dialog session (see SessionMgr.getSession)
+	 */
+	public boolean isDialogStart() {
+		return type == ServiceRequest.class || type == DataRequest.class || type == ObjectDiscoveryDataRequest.class;
+	}
+
+	/**
+	 * @return true if the message is a vehicle situation data message that shares the source meta session
+	 */
+	public boolean isVehSitData() {
+		return type == VehSitDataMessage.class;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s { type = %s; dialogID = %s; seqID = %s; groupID = %s; requestID = %s }",
+				getClass().getSimpleName(),
+				type.getSimpleName(),
+				dialogID,
+				seqID,
+				Hex.encodeHexString(groupID.byteArrayValue()),
+				Hex.encodeHexString(requestID.byteArrayValue())
+				);
+	}
+
+}
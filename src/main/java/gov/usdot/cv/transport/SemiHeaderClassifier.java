@@ -0,0 +1,171 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.oss.asn1.AbstractData;
+
+/**
+ * Classifies UPER encoded SEMI messages by peeking at their leading bits instead of decoding them.
+ * <p>
+ * Every SEMI dialog message starts with the sequence preamble followed by dialogID, seqID, groupID and requestID.
+ * The preamble, dialogID and seqID are encoded in a few leading bits whose layout depends on the message type,
+ * so rather than hard coding the layouts the classifier learns them from messages that were fully decoded:
+ * the 32 bit groupID immediately followed by the 32 bit requestID is located in the encoding and the bits in front
+ * of it (the prefix) are remembered together with the message type, dialogID and seqID. Later messages with a known
+ * prefix are classified from the prefix and their groupID and requestID are read at the learned position.
+ * A prefix is only used once {@link #CONFIRMATIONS} decoded messages agreed on its message type, dialogID and seqID,
+ * and a prefix that was ever seen with two different message types is never used.
+ */
+public class SemiHeaderClassifier {
+
+	private static final Logger log = Logger.getLogger(SemiHeaderClassifier.class);
+
+	private static final int MAX_PREFIX_BITS = 32;
+	private static final int ID_BITS = 32;
+	private static final int MAX_LAYOUTS = 256;
+	static final int CONFIRMATIONS = 8;
+
+	private final ConcurrentHashMap<Long, Layout> layouts = new ConcurrentHashMap<Long, Layout>();
+	private volatile int[] prefixLengths = new int[0];
+
+	/**
+	 * Classifies message without decoding it
+	 * @param payload UPER encoded message
+	 * @return message header or null if the layout of the message is not known (yet)
+	 */
+	public SemiHeader peek(PacketView payload) {
+		final int[] lengths = prefixLengths;
+		final int payloadBits = payload.getLength()*8;
+		Layout found = null;
+		int foundLength = 0;
+		for ( int prefixLength : lengths ) {
+			if ( prefixLength + 2*ID_BITS > payloadBits )
+				continue;
+			Layout layout = layouts.get(getKey(prefixLength, readBits(payload, 0, prefixLength)));
+			if ( layout == null || !layout.isConfirmed() )
+				continue;
+			if ( found != null && found.type != layout.type )
+				return null;	// ambiguous
+			found = layout;
+			foundLength = prefixLength;
+		}
+		if ( found == null )
+			return null;
+		return new SemiHeader(found.type, found.dialogID, found.seqID, 
+				new GroupID(readBytes(payload, foundLength, ID_BITS/8)), new TemporaryID(readBytes(payload, foundLength + ID_BITS, ID_BITS/8)));
+	}
+
+	/**
+	 * Learns layout of a message that has been fully decoded
+	 * @param payload UPER encoded message
+	 * @param pdu decoded message
+	 */
+	public void learn(PacketView payload, AbstractData pdu) {
+		SemiHeader header = SemiHeader.of(pdu);
+		if ( header == null )
+			return;
+		final byte[] groupID = header.groupID.byteArrayValue();
+		final byte[] requestID = header.requestID.byteArrayValue();
+		if ( groupID == null || groupID.length != ID_BITS/8 || requestID == null || requestID.length != ID_BITS/8 )
+			return;
+		final int payloadBits = payload.getLength()*8;
+		int prefixLength = -1;
+		for ( int offset = 0; offset <= MAX_PREFIX_BITS && offset + 2*ID_BITS <= payloadBits; offset++ ) {
+			if ( Arrays.equals(groupID, readBytes(payload, offset, ID_BITS/8)) && Arrays.equals(requestID, readBytes(payload, offset + ID_BITS, ID_BITS/8)) ) {
+				if ( prefixLength >= 0 )
+					return;		// the position of the IDs is not unique so nothing can be learned from this message
+				prefixLength = offset;
+			}
+		}
+		if ( prefixLength < 0 )
+			return;
+		final Long key = getKey(prefixLength, readBits(payload, 0, prefixLength));
+		Layout layout = layouts.get(key);
+		if ( layout == null ) {
+			if ( layouts.size() >= MAX_LAYOUTS )
+				return;
+			layout = new Layout(header.type, header.dialogID, header.seqID);
+			Layout existing = layouts.putIfAbsent(key, layout);
+			if ( existing == null ) {
+				addPrefixLength(prefixLength);
+				log.debug(String.format("Learned header layout with %d bit prefix for %s", prefixLength, header));
+				return;
+			}
+			layout = existing;
+		}
+		if ( layout.conflicting )
+			return;
+		if ( layout.type != header.type || layout.dialogID != header.dialogID || layout.seqID != header.seqID ) {
+			layout.conflicting = true;
+			log.warn(String.format("Header layout with %d bit prefix is shared by %s and %s and will not be used", prefixLength, layout.type.getSimpleName(), header.type.getSimpleName()));
+		} else if ( layout.confirmations.get() < CONFIRMATIONS && layout.confirmations.incrementAndGet() == CONFIRMATIONS ) {
+			log.debug(String.format("Confirmed header layout with %d bit prefix for %s", prefixLength, header));
+		}
+	}
+
+	/**
+	 * @return number of learned layouts
+	 */
+	public int getLayoutCount() {
+		return layouts.size();
+	}
+
+	private synchronized void addPrefixLength(int prefixLength) {
+		final int[] lengths = prefixLengths;
+		for ( int length : lengths )
+			if ( length == prefixLength )
+				return;
+		int[] updated = Arrays.copyOf(lengths, lengths.length + 1);
+		updated[lengths.length] = prefixLength;
+		prefixLengths = updated;
+	}
+
+	private static Long getKey(int prefixLength, long prefix) {
+		return ((long)prefixLength << 32) | (prefix & 0xffffffffL);
+	}
+
+	/**
+	 * Reads up to 32 bits starting at the given bit offset (most significant bit first)
+	 */
+	static long readBits(PacketView payload, int bitOffset, int bitCount) {
+		long value = 0;
+		for ( int bit = bitOffset; bit < bitOffset + bitCount; bit++ )
+			value = (value << 1) | ((payload.get(bit >>> 3) >>> (7 - (bit & 7))) & 1);
+		return value;
+	}
+
+	static byte[] readBytes(PacketView payload, int bitOffset, int byteCount) {
+		byte[] bytes = new byte[byteCount];
+		for ( int i = 0; i < byteCount; i++ )
+			bytes[i] = (byte)readBits(payload, bitOffset + 8*i, 8);
+		return bytes;
+	}
+
+	private static class Layout {
+		final Class<? extends AbstractData> type;
+		final SemiDialogID dialogID;
+		final SemiSequenceID seqID;
+		final AtomicInteger confirmations = new AtomicInteger(1);
+		volatile boolean conflicting = false;
+
+		Layout(Class<? extends AbstractData> type, SemiDialogID dialogID, SemiSequenceID seqID) {
+			this.type = type;
+			this.dialogID = dialogID;
+			this.seqID = seqID;
+		}
+
+		boolean isConfirmed() {
+			return !conflicting && confirmations.get() >= CONFIRMATIONS;
+		}
+	}
+
+}
@@ -18,10 +18,14 @@ public class ServiceRegion {
 		this.nwCnr_Longitude = J2735Util.convertGeoCoordinateToInt(nwCnr_Longitude);
 		this.seCnr_Latitude  = J2735Util.convertGeoCoordinateToInt(seCnr_Latitude);
 		this.seCnr_Longitude = J2735Util.convertGeoCoordinateToInt(seCnr_Longitude);		
+		this.responseTemplate = new ServiceResponseTemplate(this);
 	}
 
 	public final int nwCnr_Latitude;
 	public final int nwCnr_Longitude;
 	public final int seCnr_Latitude;
 	public final int seCnr_Longitude;
+	
+	// pre-encoded service response for this region
+	final ServiceResponseTemplate responseTemplate;
 }
@@ -0,0 +1,197 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.dsrc.DFullTime;
+import gov.usdot.asn1.generated.j2735.dsrc.Latitude;
+import gov.usdot.asn1.generated.j2735.dsrc.Longitude;
+import gov.usdot.asn1.generated.j2735.dsrc.Position3D;
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.GeoRegion;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.asn1.generated.j2735.semi.ServiceResponse;
+import gov.usdot.asn1.generated.j2735.semi.Sha256Hash;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.oss.asn1.Coder;
+import com.oss.asn1.EncodeFailedException;
+import com.oss.asn1.EncodeNotSupportedException;
+
+/**
+ * Pre-encoded ServiceResponse for a service region. The service region of a response never changes and the expiration
+ * only changes once a minute so for every dialog and expiration the response is encoded once and later responses are
+ * produced by copying that encoding and patching the fixed size groupID, requestID and hash fields in place.
+ * <p>
+ * The bit positions of the patched fields are found by encoding a response with random field values and are only used
+ * after a response patched with different values was verified to be identical to a freshly encoded one.
+ */
+public class ServiceResponseTemplate {
+
+	private static final Logger log = Logger.getLogger(ServiceResponseTemplate.class);
+
+	private static final int ID_LENGTH = 4;
+	private static final int HASH_LENGTH = 32;
+	// random field values could appear elsewhere in the encoding by chance so try more than once
+	private static final int MAX_BUILD_ATTEMPTS = 3;
+
+	private final GeoRegion geoRegion;
+	private final ConcurrentHashMap<SemiDialogID, Template> templates = new ConcurrentHashMap<SemiDialogID, Template>();
+	private final Random random = new Random();
+	private volatile boolean disabled = false;
+
+	public ServiceResponseTemplate(ServiceRegion serviceRegion) {
+		Position3D nwCnr = new Position3D(new Latitude(serviceRegion.nwCnr_Latitude), new Longitude(serviceRegion.nwCnr_Longitude));
+		Position3D seCnr = new Position3D(new Latitude(serviceRegion.seCnr_Latitude), new Longitude(serviceRegion.seCnr_Longitude));
+		geoRegion = new GeoRegion(nwCnr, seCnr);
+	}
+
+	/**
+	 * @return geographic region of the service region that is shared by all responses
+	 */
+	public GeoRegion getGeoRegion() {
+		return geoRegion;
+	}
+
+	/**
+	 * Produces encoded ServiceResponse from the template for the dialog and expiration
+	 * @param coder PER coder to use if the template has to be (re)built
+	 * @param dialogID response dialog ID
+	 * @param groupID response group ID
+	 * @param requestID response request ID
+	 * @param expiration response expiration
+	 * @param hash hash of the service request
+	 * @return encoded response or null if the response can not be produced from a template and has to be encoded
+	 */
+	public byte[] encode(Coder coder, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID, DFullTime expiration, byte[] hash) {
+		if ( disabled || dialogID == null || groupID == null || requestID == null || expiration == null || hash == null || hash.length != HASH_LENGTH )
+			return null;
+		final byte[] groupBytes = groupID.byteArrayValue();
+		final byte[] requestBytes = requestID.byteArrayValue();
+		if ( groupBytes == null || groupBytes.length != ID_LENGTH || requestBytes == null || requestBytes.length != ID_LENGTH )
+			return null;
+		Template template = templates.get(dialogID);
+		if ( template == null || !template.expiration.equals(expiration) ) {
+			template = null;
+			for ( int attempt = 0; attempt < MAX_BUILD_ATTEMPTS && template == null; attempt++ )
+				template = build(coder, dialogID, expiration);
+			if ( template == null ) {
+				disabled = true;
+				log.warn("ServiceResponse can not be produced from a template and will be encoded for every request");
+				return null;
+			}
+			templates.put(dialogID, template);
+		}
+		return template.patch(groupBytes, requestBytes, hash);
+	}
+
+	private Template build(Coder coder, SemiDialogID dialogID, DFullTime expiration) {
+		final byte[] group1 = randomBytes(ID_LENGTH), request1 = randomBytes(ID_LENGTH), hash1 = randomBytes(HASH_LENGTH);
+		final byte[] encoding = encode(coder, dialogID, group1, request1, expiration, hash1);
+		if ( encoding == null )
+			return null;
+		final int groupBit = find(encoding, group1);
+		final int requestBit = find(encoding, request1);
+		final int hashBit = find(encoding, hash1);
+		if ( groupBit < 0 || requestBit < 0 || hashBit < 0 ) {
+			log.debug(String.format("Couldn't locate ServiceResponse fields in the encoding (groupID: %d, requestID: %d, hash: %d)", groupBit, requestBit, hashBit));
+			return null;
+		}
+		Template template = new Template(expiration, encoding, groupBit, requestBit, hashBit);
+		// verify the template against a response encoded with different values
+		final byte[] group2 = randomBytes(ID_LENGTH), request2 = randomBytes(ID_LENGTH), hash2 = randomBytes(HASH_LENGTH);
+		if ( !Arrays.equals(template.patch(group2, request2, hash2), encode(coder, dialogID, group2, request2, expiration, hash2)) ) {
+			log.debug("Patched ServiceResponse does not match the encoded one");
+			return null;
+		}
+		log.debug(String.format("Built ServiceResponse template for dialog %s (groupID at bit %d, requestID at bit %d, hash at bit %d)", dialogID, groupBit, requestBit, hashBit));
+		return template;
+	}
+
+	private byte[] encode(Coder coder, SemiDialogID dialogID, byte[] groupID, byte[] requestID, DFullTime expiration, byte[] hash) {
+		ServiceResponse response = new ServiceResponse(dialogID, SemiSequenceID.svcResp, new GroupID(groupID), new TemporaryID(requestID), expiration, geoRegion, new Sha256Hash(hash));
+		try {
+			EncodeBuffer sink = EncodeBuffer.get();
+			coder.encode(response, sink);
+			return sink.toByteArray();
+		} catch (EncodeFailedException ex) {
+			log.error("Couldn't encode ServiceResponse template because encoding failed", ex);
+		} catch (EncodeNotSupportedException ex) {
+			log.error("Couldn't encode ServiceResponse template because encoding is not supported", ex);
+		}
+		return null;
+	}
+
+	private synchronized byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Finds the only bit offset at which the value is stored in the data
+	 * @return bit offset or -1 if the value is not found or found more than once
+	 */
+	static int find(byte[] data, byte[] value) {
+		int found = -1;
+		for ( int bitOffset = 0; bitOffset + value.length*8 <= data.length*8; bitOffset++ ) {
+			if ( matches(data, bitOffset, value) ) {
+				if ( found >= 0 )
+					return -1;
+				found = bitOffset;
+			}
+		}
+		return found;
+	}
+
+	private static boolean matches(byte[] data, int bitOffset, byte[] value) {
+		for ( int i = 0; i < value.length*8; i++ )
+			if ( getBit(data, bitOffset + i) != getBit(value, i) )
+				return false;
+		return true;
+	}
+
+	static void patch(byte[] data, int bitOffset, byte[] value) {
+		for ( int i = 0; i < value.length*8; i++ ) {
+			final int bit = bitOffset + i;
+			final int mask = 0x80 >>> (bit & 7);
+			if ( getBit(value, i) != 0 )
+				data[bit >>> 3] |= mask;
+			else
+				data[bit >>> 3] &= ~mask;
+		}
+	}
+
+	private static int getBit(byte[] data, int bit) {
+		return (data[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+	}
+
+	private static class Template {
+		final DFullTime expiration;
+		final byte[] encoding;
+		final int groupBit;
+		final int requestBit;
+		final int hashBit;
+
+		Template(DFullTime expiration, byte[] encoding, int groupBit, int requestBit, int hashBit) {
+			this.expiration = expiration;
+			this.encoding = encoding;
+			this.groupBit = groupBit;
+			this.requestBit = requestBit;
+			this.hashBit = hashBit;
+		}
+
+		byte[] patch(byte[] groupID, byte[] requestID, byte[] hash) {
+			byte[] response = encoding.clone();
+			ServiceResponseTemplate.patch(response, groupBit, groupID);
+			ServiceResponseTemplate.patch(response, requestBit, requestID);
+			ServiceResponseTemplate.patch(response, hashBit, hash);
+			return response;
+		}
+	}
+
+}
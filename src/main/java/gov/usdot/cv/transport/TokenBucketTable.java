@@ -0,0 +1,84 @@
+package gov.usdot.cv.transport;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size lock-free table of token buckets. Every bucket is a single long that packs the time
+ * of the last refill (in milliseconds since the table was created) and the number of available
+ * tokens (in thousandths of a token), and is updated with compare-and-set so no locks or per-key
+ * objects are needed. Keys are hashed into the table so keys that collide share a bucket and
+ * their combined rate is limited, which errs on the side of dropping.
+ */
+public class TokenBucketTable {
+
+	private static final int TOKEN_BITS = 24;
+	private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	private static final long TOKEN = 1000;		// one token in bucket units
+	private static final long MAX_TOKENS = TOKEN_MASK / TOKEN;
+
+	private final AtomicLongArray buckets;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * Creates token bucket table
+	 * @param size number of buckets, rounded up to a power of two
+	 */
+	public TokenBucketTable(int size) {
+		int capacity = 1;
+		while ( capacity < size && capacity < (1 << 30) )
+			capacity <<= 1;
+		this.buckets = new AtomicLongArray(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Takes one token from the bucket of the key if there is one
+	 * @param hash hash code of the key
+	 * @param rate number of tokens added to the bucket per second
+	 * @param burst maximum number of tokens the bucket can hold
+	 * @return true if a token was taken, false if the bucket is empty
+	 */
+	public boolean tryAcquire(int hash, int rate, int burst) {
+		final int index = spread(hash) & mask;
+		final long capacity = Math.min(Math.max(burst, 1), MAX_TOKENS) * TOKEN;
+		final long now = (System.nanoTime() - startTime) / 1000000L;
+		while ( true ) {
+			final long bucket = buckets.get(index);
+			long tokens;
+			if ( bucket == 0 ) {
+				// bucket that has never been used starts full
+				tokens = capacity;
+			} else {
+				final long elapsed = Math.max(0, now - (bucket >>> TOKEN_BITS));
+				// rate tokens per second is rate thousandths of a token per millisecond
+				tokens = Math.min(capacity, (bucket & TOKEN_MASK) + Math.min(elapsed, capacity) * Math.max(rate, 0));
+			}
+			if ( tokens < TOKEN )
+				return false;
+			final long update = (now << TOKEN_BITS) | (tokens - TOKEN);
+			if ( buckets.compareAndSet(index, bucket, update == 0 ? 1 : update) )
+				return true;
+		}
+	}
+
+	public int size() {
+		return buckets.length();
+	}
+
+	/**
+	 * Resets all buckets to full
+	 */
+	public void clear() {
+		for ( int i = 0; i < buckets.length(); i++ )
+			buckets.set(i, 0);
+	}
+
+	private static int spread(int hash) {
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+
+}
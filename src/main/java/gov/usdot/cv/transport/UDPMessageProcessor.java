@@ -1,13 +1,9 @@
 package gov.usdot.cv.transport;
 
-import gov.usdot.asn1.generated.j2735.J2735;
-import gov.usdot.asn1.generated.j2735.dsrc.Latitude;
-import gov.usdot.asn1.generated.j2735.dsrc.Longitude;
-import gov.usdot.asn1.generated.j2735.dsrc.Position3D;
+import gov.usdot.asn1.generated.j2735.dsrc.DFullTime;
 import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
 import gov.usdot.asn1.generated.j2735.semi.DataConfirmation;
 import gov.usdot.asn1.generated.j2735.semi.DataReceipt;
-import gov.usdot.asn1.generated.j2735.semi.GeoRegion;
 import gov.usdot.asn1.generated.j2735.semi.GroupID;
 import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
 import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
@@ -26,28 +22,24 @@ import gov.usdot.cv.common.inet.InetPacketSender;
 import gov.usdot.cv.common.inet.InetPoint;
 import gov.usdot.cv.logging.MessageCounting;
 import gov.usdot.cv.security.cert.Certificate;
-import gov.usdot.cv.security.crypto.CryptoProvider;
 import gov.usdot.cv.security.msg.IEEE1609p2Message;
 import gov.usdot.cv.security.type.MsgSignerIDType;
 import gov.usdot.cv.session.Session;
 import gov.usdot.cv.session.SessionMgr;
 import gov.usdot.cv.session.SessionReceiptReceiver;
 
-import java.io.ByteArrayOutputStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.codec.binary.Hex;
 
 import org.apache.log4j.Logger;
 
 import com.oss.asn1.AbstractData;
-import com.oss.asn1.Coder;
-import com.oss.asn1.ControlTableNotFoundException;
 import com.oss.asn1.DecodeFailedException;
 import com.oss.asn1.DecodeNotSupportedException;
 import com.oss.asn1.EncodeFailedException;
@@ -59,19 +51,15 @@ public class UDPMessageProcessor implements Runnable {
 
 	private static final Logger log = Logger.getLogger(UDPMessageProcessor.class);
 	
-	private static boolean traceEnabled = log.isTraceEnabled();
-	
-	static private final String DIGEST_ALGORITHM_NAME = "SHA-256";
-	
-	private MessageDigest messageDigest = null;
-	private Coder coder = null;
+	private ProcessingContext context = null;
 	
 	private DatagramPacket packet;
+	private long receiveTime;
 	private AbstractTransportService reciever;
 	
 	private final ServiceRegion serviceRegion;
 	private final boolean isIEEE1609DotMessageFormat;
-	private CryptoProvider cryptoProvider;
+	private final boolean isHeaderPeekEnabled;
 	public static final int Psid = 0x2fe1;
 
 	private final InetAddress forwarderInetAddress;
@@ -80,9 +68,28 @@ public class UDPMessageProcessor implements Runnable {
 	
 	static final SessionMgr sessionMgr = new SessionMgr(); 
 	static SessionReceiptReceiver receiptReceiver = null;
+	static CryptoStage cryptoStage = null;
+	static OutboundChannelPool outboundPool = null;
+	static RecipientCache recipientCache = null;
+	static ReplyExecutor replyExecutor = null;
+	static AdmissionControl admissionControl = null;
+	static DuplicateFilter duplicateFilter = null;
+	static LoadShedder loadShedder = null;
+	static final SemiHeaderClassifier headerClassifier = new SemiHeaderClassifier();
 
 	public UDPMessageProcessor(DatagramPacket packet, AbstractTransportService reciever) {
+		this(reciever);
 		this.packet = packet;
+		// the transport creates the processor in its receive loop and queues it to its executor,
+		// so the overload latency includes the time the datagram waited in the executor queue
+		this.receiveTime = System.nanoTime();
+	}
+	
+	/**
+	 * Creates reusable message processor that is fed datagrams via {@link #process(byte[], int, int, InetAddress, int)}
+	 * @param reciever transport service that received the datagrams
+	 */
+	public UDPMessageProcessor(AbstractTransportService reciever) {
 		this.reciever = reciever;
 		
 		assert(reciever instanceof CvUDPTransportService);
@@ -92,174 +99,343 @@ public class UDPMessageProcessor implements Runnable {
 		forwardingRequested = transportService.getForwardRequested();
 		forwarderInetAddress = transportService.getForwardInetAddress();	
 		forwarderPort = transportService.getForwarderPort();
+		isHeaderPeekEnabled = transportService.getHeaderPeek();
 	}
 	
 	public void run() {
+		if ( packet != null )
+			process(packet.getData(), packet.getOffset(), packet.getLength(), packet.getAddress(), packet.getPort(), receiveTime);
+	}
+	
+	/**
+	 * Processes one datagram using the processing context of the calling thread
+	 * @param data buffer that holds datagram
+	 * @param offset offset of the datagram in the buffer
+	 * @param length length of the datagram
+	 * @param address address of the datagram sender
+	 * @param port port of the datagram sender
+	 */
+	public void process(byte[] data, int offset, int length, InetAddress address, int port) {
+		process(data, offset, length, address, port, System.nanoTime());
+	}
+
+	/**
+	 * Processes one datagram using the processing context of the calling thread
+	 * @param data buffer that holds datagram
+	 * @param offset offset of the datagram in the buffer
+	 * @param length length of the datagram
+	 * @param address address of the datagram sender
+	 * @param port port of the datagram sender
+	 * @param receiveTime System.nanoTime() when the datagram was received
+	 */
+	public void process(byte[] data, int offset, int length, InetAddress address, int port, long receiveTime) {
 		try {
-			initialize();
-			processMessage();
+			context = ProcessingContext.get();
+			if ( data != null && length > 0 ) {
+				MessageCounting.incrementTotal(CvUDPTransportService.loggerIndex);
+				processMessage(new PacketView(data, offset, length), address, port, receiveTime);
+			}
 		} catch (Exception ex ) {
 			log.error("Couldn't process message", ex );			
 		} finally {
-			dispose();
+			context = null;
 		}
 	}
 	
-	private void initialize() {
+	/**
+	 * Processes a batch of received datagrams using the processing context of the calling thread.
+	 * The processing context is fetched and the total message count is updated once per batch.
+	 * When the crypto stage is available the 1609.2 envelopes of the whole batch are verified in parallel
+	 * first and the rest of the processing is done in the order the datagrams were received.
+	 * @param items received datagrams to process
+	 */
+	public void process(List<IngestItem> items) {
 		try {
-			cryptoProvider = new CryptoProvider();
-			J2735.initialize();
-			coder = J2735.getPERUnalignedCoder();
-			if ( traceEnabled ) {
-				coder.enableEncoderDebugging();
-				coder.enableDecoderDebugging();
+			context = ProcessingContext.get();
+			MessageCounting.addTotal(CvUDPTransportService.loggerIndex, items.size());
+			final CryptoStage crypto = cryptoStage;
+			boolean[] parsed = null;
+			if ( crypto != null && isIEEE1609DotMessageFormat && items.size() > 1 ) {
+				try {
+					parsed = crypto.parse(this, items);
+				} catch (RejectedExecutionException ex) {
+					// the crypto stage is being shut down so the envelopes are verified inline
+					log.debug("Crypto stage rejected the batch, verifying it inline");
+				}
 			}
-		} catch (ControlTableNotFoundException ex) {
-			log.error("Couldn't initialize J2735 parser", ex);
-		} catch (com.oss.asn1.InitializationException ex) {
-			log.error("Couldn't initialize J2735 parser", ex);
-		}
-		
-		try {
-			messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM_NAME);
-		} catch (NoSuchAlgorithmException e) {
-			log.error(String.format("Couldn't instantiate digest algorithm %s", DIGEST_ALGORITHM_NAME));
+			for ( int i = 0; i < items.size(); i++ ) {
+				IngestItem item = items.get(i);
+				try {
+					if ( (parsed != null ? parsed[i] : parse(item)) && decode(item) && session(item) && respond(item) )
+						dispatch(item);
+				} catch (Exception ex ) {
+					log.error("Couldn't process message", ex );
+				}
+			}
+		} finally {
+			context = null;
 		}
 	}
-	
-	private void dispose() {
-		messageDigest = null;
-		coder = null;
-		J2735.deinitialize();
-	}
-
-	private void processMessage() throws UnknownHostException {
-		if ( packet == null )
-			return;
-		
-		final byte[] data = packet.getData();
-		final int length = packet.getLength();	
-		
-		if ( data == null || length <= 0 )
-			return;
-		
-		final int offset = packet.getOffset();
-		final InetAddress address = packet.getAddress();
-		final int port = packet.getPort();
 
-		byte[] packetData = Arrays.copyOfRange(data, offset, length);
-		
-		if ( packetData == null || packetData.length == 0 )
-			return; 
+	private void processMessage(PacketView packetView, InetAddress address, int port, long receiveTime) throws UnknownHostException {
+		IngestItem item = new IngestItem(packetView, address, port, receiveTime);
+		if ( parse(item) && decode(item) && session(item) && respond(item) )
+			dispatch(item);
+	}
+	
+	/**
+	 * Parse/verify stage: strips the forwarder header and parses the IEEE 1609.2 envelope.
+	 * Unlike the other stages it does not keep any state in the processor so it is safe to call 
+	 * concurrently for different items (see {@link CryptoStage}).
+	 * @param item received datagram
+	 * @return true if the item has a payload that should be decoded
+	 * @throws UnknownHostException if the forwarder header holds an invalid address
+	 */
+	boolean parse(IngestItem item) throws UnknownHostException {
+		if ( item.packet.isEmpty() )
+			return false; 
 		
-		MessageCounting.incrementTotal(CvUDPTransportService.loggerIndex);
+		final DuplicateFilter duplicates = duplicateFilter;
+		if ( duplicates != null && duplicates.isDuplicate(item.packet, item.address, item.port) ) {
+			if ( log.isDebugEnabled() )
+				log.debug(String.format("Dropping duplicate message from host '%s', port %d", item.address.getHostAddress(), item.port));
+			return false;
+		}
 		
-		// original packet data could be prepended with the IPv6 forwarder header so we need to parse it out here
-		InetPacket inetPacket = new InetPacket(address, port, packetData);
-		byte[] origPacketData = inetPacket.getPayload();
+		// original packet data could be prepended with the IPv6 forwarder header, it is normally parsed out when the item is created
+		if ( item.inetPacket == null )
+			item.inetPacket = new InetPacket(item.address, item.port, item.packet.toArray());
+		PacketView origPacket = new PacketView(item.inetPacket.getPayload());
 		
-		byte[] payload;
-		byte[] certBytes;
-		byte[] certID8;
-		Boolean isDigest = null; // null -- not 1609.2, true -- 1609.2 with digest, false -- 1609.2 with certificate 
+		final AdmissionControl admission = admissionControl;
+		if ( admission != null && !admission.admit(item.inetPacket.getPoint()) ) {
+			if ( log.isDebugEnabled() )
+				log.debug(String.format("Dropping message from host '%s', port %d that exceeds the source rate limit", item.address.getHostAddress(), item.port));
+			return false;
+		}
 		
 		if ( isIEEE1609DotMessageFormat ) {
 			try {
-				IEEE1609p2Message msg = IEEE1609p2Message.parse(origPacketData, cryptoProvider);
-				payload = msg.getPayload();
+				IEEE1609p2Message msg = IEEE1609p2Message.parse(origPacket.toArray(), ProcessingContext.get().getCryptoProvider());
+				item.payload = new PacketView(msg.getPayload());
 				Certificate cert = msg.getCertificate();
-				certBytes = cert.getBytes();
-				certID8 = msg.getCertID8();
-				isDigest = msg.getSignerIDType() != MsgSignerIDType.Certificate;
-				log.debug("Received and successfully parsed 1609.2 message with " + (isDigest == true ? "digest" : "certificate") + " from sender with digest: " + Hex.encodeHexString(certID8));
+				item.certBytes = cert.getBytes();
+				item.certID8 = msg.getCertID8();
+				final boolean isDigest = msg.getSignerIDType() != MsgSignerIDType.Certificate;
+				if ( !isDigest && recipientCache != null )
+					recipientCache.markResolved(item.certID8);
+				if ( log.isDebugEnabled() ) {
+					log.debug("Received and successfully parsed 1609.2 message with " + (isDigest == true ? "digest" : "certificate") + " from sender with digest: " + Hex.encodeHexString(item.certID8));
+				}
 			} catch ( Exception ex ) {
 				log.error("Error parsing IEEE 1609.2 message. Reason: " + ex.getMessage(), ex);
-				log.error("Failed message bytes:  " + Hex.encodeHexString(origPacketData));
-				return;
+				log.error("Failed message bytes:  " + origPacket.toHexString());
+				return false;
 			}
 		} else {
-			payload = origPacketData;
-			certBytes = certID8 = null;
+			item.payload = origPacket;
 		}
 		
-		if ( payload == null || payload.length == 0 )
-			return;
+		if ( item.payload.isEmpty() )
+			return false;
 		
-		log.debug(String.format("Received packet from host %s, port %d. Paylaod: %s\nBundle: %s", 
-				address.getHostAddress(), port, payload != null ? Hex.encodeHexString(payload) : "<null>", inetPacket.toHexString()));
+		if ( log.isDebugEnabled() )
+			log.debug(String.format("Received packet from host %s, port %d. Paylaod: %s\nBundle: %s", 
+				item.address.getHostAddress(), item.port, item.payload.toHexString(), item.inetPacket.toHexString()));
 		
-		AbstractData pdu = null;
+		if ( isHeaderPeekEnabled )
+			item.header = headerClassifier.peek(item.payload);
+		if ( item.header != null && admission != null && !admission.admit(item.inetPacket.getPoint(), item.header.dialogID) ) {
+			if ( log.isDebugEnabled() )
+				log.debug(String.format("Dropping message from host '%s', port %d that exceeds the rate limit of its dialog. Header: %s", item.address.getHostAddress(), item.port, item.header));
+			return false;
+		}
+		final LoadShedder shedder = loadShedder;
+		if ( shedder != null ) {
+			shedder.recordLatency(System.nanoTime() - item.receiveTime);
+			if ( isShed(shedder, item, item.header) )
+				return false;
+		}
+		return true;
+	}
+	
+	private boolean isShed(LoadShedder shedder, IngestItem item, SemiHeader header) {
+		if ( !shedder.shouldShed(header) )
+			return false;
+		MessageCounting.incrementShed(CvUDPTransportService.loggerIndex);
+		if ( log.isDebugEnabled() )
+			log.debug(String.format("Shedding message from host '%s', port %d under overload. Header: %s", item.address.getHostAddress(), item.port, header));
+		return true;
+	}
+	
+	/**
+	 * Decode stage: decodes the J2735 payload unless the message header peeked by the parse stage shows 
+	 * that the message is a vehicle situation data message or that it is out of sequence
+	 * @param item parsed datagram
+	 * @return true if the payload was decoded successfully or decoding was deferred to the session stage
+	 */
+	boolean decode(IngestItem item) {
+		context = ProcessingContext.get();
+		if ( isDecodeDeferred(item) )
+			return true;
+		return decodePayload(item);
+	}
+	
+	private boolean isDecodeDeferred(IngestItem item) {
+		final SemiHeader header = item.header;
+		if ( header == null )
+			return false;
+		if ( header.isVehSitData() )
+			return true;
+		// the session may still be created by an earlier message of the source that is yet to reach the session stage
+		// so the final decision whether the message is out of sequence is made by the session stage
+		return header.isSessionRequired() && !sessionMgr.hasActiveSession(item.inetPacket.getPoint(), header.dialogID, header.groupID, header.requestID);
+	}
+	
+	private boolean decodePayload(IngestItem item) {
 		try {
-			pdu = J2735Util.decode(coder, payload);
+			item.pdu = J2735Util.decode(context.getCoder(), item.payload.toArray());
+			if ( item.pdu == null )
+				return false;
+			if ( item.header == null ) {
+				if ( isHeaderPeekEnabled )
+					headerClassifier.learn(item.payload, item.pdu);
+				// the dialog of a message whose header couldn't be peeked is only known now
+				final AdmissionControl admission = admissionControl;
+				if ( admission != null && !admission.admit(item.inetPacket.getPoint(), DialogIDHelper.getDialogID(item.pdu)) ) {
+					if ( log.isDebugEnabled() )
+						log.debug(String.format("Dropping message from host '%s', port %d that exceeds the rate limit of its dialog", item.address.getHostAddress(), item.port));
+					item.pdu = null;
+					return false;
+				}
+				final LoadShedder shedder = loadShedder;
+				if ( shedder != null && isShed(shedder, item, SemiHeader.of(item.pdu)) ) {
+					item.pdu = null;
+					return false;
+				}
+			}
+			return true;
 		} catch (DecodeFailedException ex) {
 			log.error("Couldn't decode message because decoding failed", ex);
-			return;
 		} catch (DecodeNotSupportedException ex) {
 			log.error("Couldn't decode message because decoding is not supported", ex);
-			return;
 		}
-
-		Session session = sessionMgr.getSession(inetPacket.getPoint(), pdu, certBytes, certID8);
+		return false;
+	}
+	
+	/**
+	 * Session stage: finds or creates the dialog session and the reply destination
+	 * @param item decoded datagram
+	 * @return true if the message belongs to a valid session
+	 */
+	boolean session(IngestItem item) {
+		Session session;
+		if ( item.pdu == null && item.header != null ) {
+			final SemiHeader header = item.header;
+			if ( header.isVehSitData() ) {
+				session = sessionMgr.getMetaSession(item.inetPacket.getPoint(), header.dialogID, false);
+			} else {
+				if ( !sessionMgr.hasActiveSession(item.inetPacket.getPoint(), header.dialogID, header.groupID, header.requestID) ) {
+					log.warn(String.format("Dropping out of sequence message from host '%s', port %d without decoding it. Header: %s", item.address.getHostAddress(), item.port, header));
+					return false;
+				}
+				context = ProcessingContext.get();
+				if ( !decodePayload(item) )
+					return false;
+				session = sessionMgr.getSession(item.inetPacket.getPoint(), item.pdu, item.certBytes, item.certID8);
+			}
+		} else {
+			session = sessionMgr.getSession(item.inetPacket.getPoint(), item.pdu, item.certBytes, item.certID8);
+		}
 		
 		if ( session == null ) {
-			log.warn(String.format("Dropping out of sequence message from host '%s', port %d. Msg: %s", address.getHostAddress(), port, pdu));
-			return;
+			log.warn(String.format("Dropping out of sequence message from host '%s', port %d. Msg: %s", item.address.getHostAddress(), item.port, item.pdu));
+			return false;
 		}
 		
 		InetPoint destination = session.getDestination();
 		if ( destination == null )
 			destination = session.getSessionKey().source;
-		byte[] recipient =  session.getCertID8(); 
+		item.session = session;
+		item.destination = destination;
+		item.recipient = session.getCertID8();
+		item.dialogID = item.pdu != null ? DialogIDHelper.getDialogID(item.pdu) : item.header.dialogID;
+		return true;
+	}
+	
+	/**
+	 * Respond stage: replies to service requests and data acceptance messages
+	 * @param item datagram with a valid session
+	 * @return true if the message carries data that needs to be dispatched
+	 */
+	boolean respond(IngestItem item) {
+		context = ProcessingContext.get();
+		final AbstractData pdu = item.pdu;
 		if ( pdu instanceof ServiceRequest ) {
 			log.debug("Received ServiceRequest");
 			ServiceRequest serviceRequest = (ServiceRequest)pdu;
-			sendServiceResponse(payload, destination, serviceRequest.getDialogID(),  serviceRequest.getGroupID(), serviceRequest.getRequestID(), recipient);
-		} else if ( reciever != null && payload != null && payload.length > 0 ) {
-			if ( pdu instanceof IntersectionSituationDataAcceptance ) {
-				sendDataReceipt(session, (IntersectionSituationDataAcceptance)pdu, destination, recipient);
-			} else if ( pdu instanceof DataAcceptance ) {
-				sendDataReceipt(session, (DataAcceptance)pdu, destination, recipient);
-			} else {
-				processMessage(session, payload, DialogIDHelper.getDialogID(pdu));
-				if ( pdu instanceof AdvisorySituationData ) {
-					AdvisorySituationData asdc = (AdvisorySituationData)pdu;
-					sendDataConfirmation(payload, destination, asdc.getDialogID(), asdc.getGroupID(), asdc.getRequestID(), recipient);
-				}
-			}
+			sendServiceResponse(item.payload, item.destination, serviceRequest.getDialogID(),  serviceRequest.getGroupID(), serviceRequest.getRequestID(), item.recipient);
+			return false;
+		} 
+		if ( reciever == null )
+			return false;
+		if ( pdu instanceof IntersectionSituationDataAcceptance ) {
+			sendDataReceipt(item.session, (IntersectionSituationDataAcceptance)pdu, item.destination, item.recipient);
+			return false;
+		} 
+		if ( pdu instanceof DataAcceptance ) {
+			sendDataReceipt(item.session, (DataAcceptance)pdu, item.destination, item.recipient);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Dispatch stage: passes the data on to the transport service and confirms advisory situation data
+	 * @param item datagram that carries data
+	 * @throws UnknownHostException if the forwarder address is invalid
+	 */
+	void dispatch(IngestItem item) throws UnknownHostException {
+		context = ProcessingContext.get();
+		final AbstractData pdu = item.pdu;
+		processMessage(item.session, item.payload, item.dialogID);
+		if ( pdu instanceof AdvisorySituationData ) {
+			AdvisorySituationData asdc = (AdvisorySituationData)pdu;
+			sendDataConfirmation(item.payload, item.destination, asdc.getDialogID(), asdc.getGroupID(), asdc.getRequestID(), item.recipient);
 		}
 	}
 
-	private void sendServiceResponse(byte[] packetData, InetPoint destination, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID, byte[] recipient) {
+	private void sendServiceResponse(final PacketView packetData, InetPoint destination, final SemiDialogID dialogID, final GroupID groupID, TemporaryID requestID, byte[] recipient) {
 		log.debug("called sendServiceResponse");
 		if ( requestID == null ) {
 			log.warn("Received Service Request with null request ID. Random ID will be used in the Service Response");
 			requestID = J2735Util.createTemporaryID();
 		}
-		
-		byte[] packetHash = messageDigest.digest(packetData);
-		byte[] responseBytes = formatServiceResponsePayload(packetHash, dialogID, groupID, requestID);
-		if ( responseBytes != null && responseBytes.length > 0 ) {
-			byte[] responsePayload = to1609_2( responseBytes, recipient, false );
-			if ( responsePayload != null )
-				send(destination, responsePayload);
-		}
+		final TemporaryID responseRequestID = requestID;
+		reply(new Reply(destination, recipient, false) {
+			ByteBuffer format(ProcessingContext context) {
+				byte[] packetHash = packetData.digest(context.getMessageDigest());
+				return formatServiceResponsePayload(context, packetHash, dialogID, groupID, responseRequestID);
+			}
+		});
 	}
 	
-	private void sendDataConfirmation(byte[] packetData, InetPoint destination, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID, byte[] recipient) {
+	private void sendDataConfirmation(final PacketView packetData, InetPoint destination, final SemiDialogID dialogID, final GroupID groupID, final TemporaryID requestID, byte[] recipient) {
 		log.debug("called sendDataConfirmation");
 		if ( requestID == null ) {
 			log.warn("Dropping message with null request ID.");
 			return;
 		}
-		log.debug("sendDataConfirmation: payload: " + Hex.encodeHexString(packetData));
-		byte[] packetHash = messageDigest.digest(packetData);
-		log.debug("sendDataConfirmation: packetHash: " + Hex.encodeHexString(packetHash));
-		byte[] responseBytes = formatDataConfirmationPayload(packetHash, dialogID, groupID, requestID);
-		if ( responseBytes != null && responseBytes.length > 0 ) {
-			byte[] responsePayload = to1609_2( responseBytes, recipient, true );
-			if ( responsePayload != null )
-				send(destination, responsePayload);
-		}
+		reply(new Reply(destination, recipient, true) {
+			ByteBuffer format(ProcessingContext context) {
+				if ( log.isDebugEnabled() )
+					log.debug("sendDataConfirmation: payload: " + packetData.toHexString());
+				byte[] packetHash = packetData.digest(context.getMessageDigest());
+				if ( log.isDebugEnabled() )
+					log.debug("sendDataConfirmation: packetHash: " + Hex.encodeHexString(packetHash));
+				return formatDataConfirmationPayload(context, packetHash, dialogID, groupID, requestID);
+			}
+		});
 	}
 	
 	private void sendDataReceipt(Session session, IntersectionSituationDataAcceptance isda, InetPoint destination, byte[] recipient) {
@@ -274,12 +450,7 @@ public class UDPMessageProcessor implements Runnable {
 		log.debug(String.format("Records sent: %d, records received: %d", recordsSent, recordsReceived));
 		if ( recordsSent == recordsReceived ) {
 			if ( requestID != null ) {
-				byte[] responseBytes = formatDataReceiptPayload(dialogID, groupID, requestID);
-				if ( responseBytes != null && responseBytes.length > 0 ) {
-					byte[] responsePayload = to1609_2( responseBytes, recipient, true );
-					if ( responsePayload != null )
-						send(destination, responsePayload);
-				}
+				sendDataReceipt(destination, dialogID, groupID, requestID, recipient);
 			} else {
 				log.warn("Dropping message with null request ID.");
 			}
@@ -296,31 +467,73 @@ public class UDPMessageProcessor implements Runnable {
 		final TemporaryID requestID = da.getRequestID();
 		session.close();
 		if ( requestID != null ) {
-			byte[] responseBytes = formatDataReceiptPayload(dialogID, groupID, requestID);
-			if ( responseBytes != null && responseBytes.length > 0 ) {
-				byte[] responsePayload = to1609_2( responseBytes, recipient, true );
+			sendDataReceipt(destination, dialogID, groupID, requestID, recipient);
+		} else {
+			log.warn("Dropping message with null request ID.");
+		}
+	}
+	
+	private void sendDataReceipt(InetPoint destination, final SemiDialogID dialogID, final GroupID groupID, final TemporaryID requestID, byte[] recipient) {
+		reply(new Reply(destination, recipient, true) {
+			ByteBuffer format(ProcessingContext context) {
+				return formatDataReceiptPayload(context, dialogID, groupID, requestID);
+			}
+		});
+	}
+	
+	/**
+	 * Hands the reply to the reply executor or, if there is none, sends it right away
+	 */
+	private void reply(Reply reply) {
+		final ReplyExecutor executor = replyExecutor;
+		if ( executor != null )
+			executor.execute(reply.destination, reply);
+		else
+			reply.run();
+	}
+	
+	/**
+	 * Reply that is formatted, signed or encrypted and sent using the processing context of the thread that runs it
+	 */
+	private abstract class Reply implements Runnable {
+		final InetPoint destination;
+		final byte[] recipient;
+		final boolean encrypt;
+		
+		Reply(InetPoint destination, byte[] recipient, boolean encrypt) {
+			this.destination = destination;
+			this.recipient = recipient;
+			this.encrypt = encrypt;
+		}
+		
+		abstract ByteBuffer format(ProcessingContext context);
+		
+		public void run() {
+			final ProcessingContext context = ProcessingContext.get();
+			ByteBuffer responseBytes = format(context);
+			if ( responseBytes != null && responseBytes.hasRemaining() ) {
+				ByteBuffer responsePayload = to1609_2( context, responseBytes, recipient, encrypt );
 				if ( responsePayload != null )
 					send(destination, responsePayload);
 			}
-		} else {
-			log.warn("Dropping message with null request ID.");
 		}
 	}
 	
-	private byte[] formatServiceResponsePayload(byte[] hashBytes, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID)
+	private ByteBuffer formatServiceResponsePayload(ProcessingContext context, byte[] hashBytes, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID)
 	{	
+		final ServiceResponseTemplate template = serviceRegion.responseTemplate;
+		final DFullTime expiration = J2735Util.expireInMin(1);
+		byte[] responseBytes = template.encode(context.getCoder(), dialogID, groupID, requestID, expiration, hashBytes);
+		if ( responseBytes != null )
+			return ByteBuffer.wrap(responseBytes);
+		
 		Sha256Hash hash = new Sha256Hash(hashBytes);
-
-		Position3D nwCnr = new Position3D(new Latitude(serviceRegion.nwCnr_Latitude), new Longitude(serviceRegion.nwCnr_Longitude));
-		Position3D seCnr = new Position3D(new Latitude(serviceRegion.seCnr_Latitude), new Longitude(serviceRegion.seCnr_Longitude));
-		GeoRegion svcGeoRegion = new GeoRegion(nwCnr, seCnr);
-		ServiceResponse response = new ServiceResponse(dialogID, SemiSequenceID.svcResp, groupID, requestID, J2735Util.expireInMin(1), svcGeoRegion, hash);
+		ServiceResponse response = new ServiceResponse(dialogID, SemiSequenceID.svcResp, groupID, requestID, expiration, template.getGeoRegion(), hash);
 		
 		try {
-			ByteArrayOutputStream sink = new ByteArrayOutputStream();
-			coder.encode(response, sink);
-			byte[] responseBytes = sink.toByteArray();
-			return responseBytes;
+			EncodeBuffer sink = context.getSink();
+			context.getCoder().encode(response, sink);
+			return sink.toByteBuffer();
 		} catch (EncodeFailedException ex) {
 			log.error("Couldn't encode ServiceResponse message because encoding failed", ex);
 		} catch (EncodeNotSupportedException ex) {
@@ -330,15 +543,15 @@ public class UDPMessageProcessor implements Runnable {
 		return null;
 	}
 	
-	private byte[] formatDataConfirmationPayload(byte[] hashBytes, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID)
+	private ByteBuffer formatDataConfirmationPayload(ProcessingContext context, byte[] hashBytes, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID)
 	{	
 		Sha256Hash hash = new Sha256Hash(hashBytes);
 		AbstractData pdu = null;
 		pdu = new DataConfirmation(dialogID, SemiSequenceID.dataConf, groupID, requestID, hash);		
 		try {
-			ByteArrayOutputStream sink = new ByteArrayOutputStream();
-			coder.encode(pdu, sink);
-			return sink.toByteArray();
+			EncodeBuffer sink = context.getSink();
+			context.getCoder().encode(pdu, sink);
+			return sink.toByteBuffer();
 		} catch (EncodeFailedException ex) {
 			log.error("Couldn't encode DataConfirmation message because encoding failed", ex);
 		} catch (EncodeNotSupportedException ex) {
@@ -347,13 +560,13 @@ public class UDPMessageProcessor implements Runnable {
 		return null;
 	}
 	
-	private byte[] formatDataReceiptPayload(SemiDialogID dialogID, GroupID groupID, TemporaryID requestID)
+	private ByteBuffer formatDataReceiptPayload(ProcessingContext context, SemiDialogID dialogID, GroupID groupID, TemporaryID requestID)
 	{	
 		DataReceipt pdu = new DataReceipt(dialogID, SemiSequenceID.receipt, groupID, requestID);		
 		try {
-			ByteArrayOutputStream sink = new ByteArrayOutputStream();
-			coder.encode(pdu, sink);
-			return sink.toByteArray();
+			EncodeBuffer sink = context.getSink();
+			context.getCoder().encode(pdu, sink);
+			return sink.toByteBuffer();
 		} catch (EncodeFailedException ex) {
 			log.error("Couldn't encode DataConfirmation message because encoding failed", ex);
 		} catch (EncodeNotSupportedException ex) {
@@ -362,25 +575,37 @@ public class UDPMessageProcessor implements Runnable {
 		return null;
 	}
 	
-	private void send(InetPoint destination, byte[] payload) {
+	private void send(InetPoint destination, ByteBuffer payload) {
+		final OutboundChannelPool pool = outboundPool;
+		if ( pool != null ) {
+			try {
+				if ( pool.isForwarding() && forwardingRequested != null && forwardingRequested == true && destination.forward )
+					pool.forward(destination, payload);
+				else
+					pool.send(destination, payload);
+			} catch (UnknownHostException ex) {
+				log.error(String.format("Couldn't send reply to address %s (bytes hex encoded), port %d", Hex.encodeHexString(destination.address), destination.port), ex);
+			}
+			return;
+		}
 		try {
 			if ( forwardingRequested != null && forwardingRequested == true && destination.forward ) {
 				InetPoint forwarder = new InetPoint(forwarderInetAddress.getAddress(), forwarderPort);
 				InetPacketSender sender = new InetPacketSender(forwarder);
 				sender.setForwardAll(true);
 				log.debug(String.format("Forwarding to host: %s, port: %d for destination: %s", forwarderInetAddress.getHostAddress(), forwarderPort, destination));
-				sender.forward(destination, payload);
+				sender.forward(destination, EncodeBuffer.toArray(payload));
 			} else {
 				InetPacketSender sender = new InetPacketSender();
 				log.debug(String.format("Sending directly to destination: %s", destination));
-				sender.send(destination, payload);
+				sender.send(destination, EncodeBuffer.toArray(payload));
 			}
 		} catch (InetPacketException ex) {
 			log.error(String.format("Couldn't send ServiceResponse to address %s (bytes hex encoded), port %d", Hex.encodeHexString(destination.address), destination.port), ex);
 		}
 	}
 
-	private void processMessage(Session session, byte[] payloadData, SemiDialogID dialogID) throws UnknownHostException {
+	private void processMessage(Session session, PacketView payloadData, SemiDialogID dialogID) throws UnknownHostException {
 		log.debug("called processMessage");
 		String recievedPayload = encodePayload(session, payloadData);
 		AbstractTransportService transportSvc = HelperTransports.map.get(dialogID);
@@ -394,25 +619,40 @@ public class UDPMessageProcessor implements Runnable {
 		}
 	}
 	
-	private String encodePayload(Session session, byte[] payloadData) throws UnknownHostException {
+	private String encodePayload(Session session, PacketView payloadData) throws UnknownHostException {
 		assert(session != null);
 		InetPoint destPoint = session.getDestination();
 		if ( destPoint == null )
 			destPoint = session.getSessionKey().source;
 		assert(destPoint != null);
-		return DataBundleUtil.encode(session.getSessionID().getBytes(), destPoint.getInetAddress().getHostAddress().getBytes(), destPoint.port, destPoint.forward, session.getCertificate(), payloadData);
+		return DataBundleUtil.encode(session.getSessionID().getBytes(), destPoint.getInetAddress().getHostAddress().getBytes(), destPoint.port, destPoint.forward, session.getCertificate(), payloadData.toArray());
 	}
 		
-	private byte[] to1609_2(byte[] payload, byte[] recipient, boolean encrypt) {
+	private ByteBuffer to1609_2(ProcessingContext context, ByteBuffer payload, byte[] recipient, boolean encrypt) {
 		if ( !isIEEE1609DotMessageFormat )
 			return payload;
-		IEEE1609p2Message msg = new IEEE1609p2Message(cryptoProvider);
+		final RecipientCache cache = recipientCache;
+		if ( encrypt && cache != null && cache.isUnresolvable(recipient) ) {
+			log.debug(String.format("Dropping reply for recipient %s whose encryption key could not be resolved", Hex.encodeHexString(recipient)));
+			return null;
+		}
+		IEEE1609p2Message msg = new IEEE1609p2Message(context.getCryptoProvider());
 		msg.setPSID(Psid);
 		try {
-			return encrypt ? msg.encrypt(payload, recipient) : msg.sign(payload);
+			// 1609.2 wrapping takes the exact payload array so this is the only place the encoding is copied
+			final byte[] bytes = EncodeBuffer.toArray(payload);
+			if ( !encrypt )
+				return ByteBuffer.wrap(msg.sign(bytes));
+			final ByteBuffer encrypted = ByteBuffer.wrap(msg.encrypt(bytes, recipient));
+			if ( cache != null )
+				cache.markResolved(recipient);
+			return encrypted;
 		} catch (Exception ex) {
 			log.error(String.format("Couldn't %s message for recipient %s. Reason: %s", 
 				encrypt ? "encrypt" : "sign", recipient != null ? Hex.encodeHexString(recipient) : "<null>", ex.getMessage()), ex);
+			// only a recipient whose key has never been resolved is skipped by later replies
+			if ( encrypt && cache != null && cache.markUnresolvable(recipient) )
+				log.warn(String.format("Encryption key of recipient %s could not be resolved, replies to it are dropped for a while", Hex.encodeHexString(recipient)));
 			return null;
 		}
 	}
@@ -0,0 +1,41 @@
+package gov.usdot.cv.session;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CoarseClockTest {
+
+	@After
+	public void tearDown() {
+		CoarseClock.stop();
+	}
+
+	@Test
+	public void testSystemClockWhenStopped() {
+		assertFalse(CoarseClock.isRunning());
+		final long before = System.currentTimeMillis();
+		final long now = CoarseClock.currentTimeMillis();
+		assertTrue(now >= before && now <= System.currentTimeMillis());
+	}
+
+	@Test
+	public void testTicker() throws InterruptedException {
+		CoarseClock.start(5);
+		assertTrue(CoarseClock.isRunning());
+		final long start = CoarseClock.currentTimeMillis();
+		Thread.sleep(100);
+		final long now = CoarseClock.currentTimeMillis();
+		assertTrue(now > start);
+		// the clock is at most a few resolution periods behind the system clock
+		assertTrue(System.currentTimeMillis() - now < 100);
+
+		CoarseClock.stop();
+		assertFalse(CoarseClock.isRunning());
+		CoarseClock.start(0);
+		assertFalse(CoarseClock.isRunning());
+	}
+
+}
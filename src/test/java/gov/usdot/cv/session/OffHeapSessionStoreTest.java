@@ -0,0 +1,200 @@
+package gov.usdot.cv.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class OffHeapSessionStoreTest {
+
+	private static Session createSession(String address, int port, long timeToLive) throws UnknownHostException {
+		InetPoint source = new InetPoint(InetAddress.getByName(address).getAddress(), port, true);
+		return new Session(new SessionKey(source, SemiDialogID.vehSitData), timeToLive);
+	}
+
+	@Test
+	public void testStoreAndLookup() throws UnknownHostException {
+		OffHeapSessionStore store = new OffHeapSessionStore(16, 2, 1000);
+		Session session = createSession("2001:db8::1", 47561, 60*1000);
+		InetPoint destination = new InetPoint(InetAddress.getByName("10.0.0.2").getAddress(), 47562, false);
+		session.setDestination(destination);
+		session.setCertificate("my certificate".getBytes());
+		session.setCertID8(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		session.putSeqID(SemiSequenceID.svcReq);
+		session.incrementCount();
+
+		Session stored = store.add(session);
+		assertNotSame(session, stored);
+		assertEquals(1, store.size());
+		assertEquals(session.getSessionKey(), stored.getSessionKey());
+		assertEquals(session.getSessionKey().source.port, stored.getSessionKey().source.port);
+		assertTrue(stored.getSessionKey().source.forward);
+		assertArrayEquals(session.getSessionKey().source.address, stored.getSessionKey().source.address);
+		assertTrue(stored.getSessionKey().isMetaSession);
+
+		// every lookup returns a view of the same slot
+		Session byKey = store.get(session.getSessionKey());
+		assertEquals(stored, byKey);
+		Session byID = store.get(stored.getSessionID());
+		assertEquals(stored, byID);
+		assertEquals(stored.getSessionID(), byID.getSessionID());
+		assertNull(store.get(session.getSessionID()));
+		assertNull(store.get("not a session ID"));
+
+		// state is kept in the slot
+		assertEquals(destination.port, byKey.getDestination().port);
+		assertArrayEquals(destination.address, byKey.getDestination().address);
+		assertFalse(byKey.getDestination().forward);
+		assertArrayEquals("my certificate".getBytes(), byKey.getCertificate());
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, byKey.getCertID8());
+		assertTrue(byKey.hasSeqID(SemiSequenceID.svcReq));
+		assertFalse(byKey.hasSeqID(SemiSequenceID.accept));
+		byKey.putSeqID(SemiSequenceID.dataReq);
+		byKey.incrementCount();
+		assertTrue(byID.hasSeqID(SemiSequenceID.dataReq));
+		assertEquals(2, byID.getCount());
+		assertFalse(byID.isInactive());
+	}
+
+	@Test
+	public void testReplaceCloseAndExpire() throws UnknownHostException {
+		OffHeapSessionStore store = new OffHeapSessionStore(16, 1, 1000);
+		Session first = store.add(createSession("127.0.0.1", 47561, 60*1000));
+		first.setCertificate("certificate".getBytes());
+		Session second = createSession("127.0.0.1", 47561, 60*1000);
+		second.setCertificate("certificate".getBytes());
+		second = store.add(second);
+		assertEquals(1, store.size());
+		assertEquals(1, store.getCertificateCount());
+		// the replaced session is freed and its views behave like a closed session
+		assertTrue(first.isClosed());
+		assertTrue(first.isInactive());
+		assertFalse(store.remove(first));
+		assertNull(store.get(first.getSessionID()));
+		assertEquals(second, store.get(second.getSessionKey()));
+		// the slot of the replaced session is reused, updates through its stale views are ignored
+		first.incrementCount();
+		first.putSeqID(SemiSequenceID.accept);
+		first.close();
+		assertEquals(0, second.getCount());
+		assertFalse(second.hasSeqID(SemiSequenceID.accept));
+		assertFalse(second.isClosed());
+
+		Session other = store.add(createSession("127.0.0.2", 47561, 60*1000));
+		assertEquals(2, store.size());
+		other.close();
+		assertTrue(other.isInactive());
+		assertEquals(1, store.expire(CoarseClock.currentTimeMillis()));
+		assertEquals(1, store.size());
+		assertNull(store.get(other.getSessionID()));
+
+		// expired sessions are freed when their tick comes due
+		assertEquals(1, store.expire(CoarseClock.currentTimeMillis() + 61*1000));
+		assertEquals(0, store.size());
+		assertEquals(0, store.getCertificateCount());
+	}
+
+	@Test
+	public void testStaleViewsDontUpdateReplacedSessions() throws UnknownHostException, InterruptedException {
+		final OffHeapSessionStore store = new OffHeapSessionStore(16, 1, 1000);
+		final AtomicReference<Session> replaced = new AtomicReference<Session>(store.add(createSession("127.0.0.1", 47561, 60*1000)));
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		Thread[] updaters = new Thread[4];
+		for ( int i = 0; i < updaters.length; i++ ) {
+			updaters[i] = new Thread(new Runnable() {
+				public void run() {
+					while ( !stopped.get() ) {
+						Session stale = replaced.get();
+						stale.incrementCount();
+						stale.putSeqID(SemiSequenceID.accept);
+					}
+				}
+			});
+			updaters[i].start();
+		}
+		try {
+			for ( int i = 0; i < 200000; i++ ) {
+				// the replacement reuses the slot of the session the updaters hold a view of
+				Session current = store.add(createSession("127.0.0.1", 47561, 60*1000));
+				assertEquals(0, current.getCount());
+				assertFalse(current.hasSeqID(SemiSequenceID.accept));
+				replaced.set(current);
+			}
+		} finally {
+			stopped.set(true);
+			for ( Thread updater : updaters )
+				updater.join();
+		}
+		assertEquals(1, store.size());
+	}
+
+	@Test
+	public void testActiveSessionIsRescheduled() throws UnknownHostException, InterruptedException {
+		OffHeapSessionStore store = new OffHeapSessionStore(16, 1, 10);
+		final long start = CoarseClock.currentTimeMillis();
+		Session session = store.add(createSession("127.0.0.1", 47561, 100));
+		assertEquals(0, store.expire(start + 50));
+		Thread.sleep(60);
+		session.touch();
+		// the bucket of the original expiration tick comes due but the session has been active since
+		assertEquals(0, store.expire(start + 120));
+		assertFalse(session.isInactive());
+		assertEquals(1, store.size());
+		// expires at its new expiration tick
+		assertEquals(1, store.expire(session.getLastActiveTime() + 120));
+		assertEquals(0, store.size());
+		assertNull(store.get(session.getSessionID()));
+	}
+
+	@Test
+	public void testFullStore() throws UnknownHostException {
+		OffHeapSessionStore store = new OffHeapSessionStore(4, 1, 1000);
+		for ( int i = 0; i < store.getCapacity(); i++ )
+			assertTrue(store.add(createSession("127.0.0.1", 1024 + i, 60*1000)) instanceof OffHeapSessionStore.SlotSession);
+		// a session that doesn't fit is kept on the heap and found like the others
+		Session session = createSession("127.0.0.1", 2048, 60*1000);
+		assertSame(session, store.add(session));
+		assertEquals(1, store.getOverflowCount());
+		assertEquals(store.getCapacity() + 1, store.size());
+		assertSame(session, store.get(session.getSessionKey()));
+		assertSame(session, store.get(session.getSessionID()));
+		assertTrue(store.values().contains(session));
+
+		// once a slot is free a session with the key of the heap session replaces it in the store
+		assertTrue(store.remove(store.get(createSession("127.0.0.1", 1024, 60*1000).getSessionKey())));
+		Session replacement = store.add(createSession("127.0.0.1", 2048, 60*1000));
+		assertTrue(replacement instanceof OffHeapSessionStore.SlotSession);
+		assertTrue(session.isClosed());
+		assertEquals(replacement, store.get(session.getSessionKey()));
+		assertNull(store.get(session.getSessionID()));
+		assertEquals(store.getCapacity(), store.size());
+
+		// slots are reused once they are freed
+		for ( Session stored : store.values() )
+			assertTrue(store.remove(stored));
+		assertEquals(0, store.size());
+		for ( int i = 0; i < 100; i++ ) {
+			Session stored = store.add(createSession("127.0.0.1", 4096 + i, 60*1000));
+			assertNotNull(store.get(stored.getSessionKey()));
+			assertTrue(store.remove(stored));
+		}
+		store.clear();
+		assertEquals(0, store.size());
+	}
+
+}
@@ -0,0 +1,51 @@
+package gov.usdot.cv.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.asn1.GroupIDHelper;
+import gov.usdot.cv.common.asn1.TemporaryIDHelper;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class SessionKeyTest {
+
+	@Test
+	public void testProbeMatchesKey() throws UnknownHostException {
+		InetPoint source = new InetPoint(InetAddress.getByName("2001:db8::1").getAddress(), 47561, true);
+		SessionKey key = new SessionKey(source, SemiDialogID.advSitDatDist, GroupIDHelper.toGroupID(7), TemporaryIDHelper.toTemporaryID(42));
+		InetPoint copy = new InetPoint(source.address.clone(), source.port, source.forward);
+		SessionKeyProbe probe = SessionKeyProbe.of(copy, SemiDialogID.advSitDatDist, GroupIDHelper.toGroupID(7), TemporaryIDHelper.toTemporaryID(42));
+		assertEquals(key.hashCode(), probe.hashCode());
+		assertTrue(probe.equals(key));
+		assertTrue(key.equals(probe));
+		
+		probe = SessionKeyProbe.of(copy, SemiDialogID.advSitDatDist, GroupIDHelper.toGroupID(7), TemporaryIDHelper.toTemporaryID(43));
+		assertFalse(probe.equals(key));
+		probe = SessionKeyProbe.of(new InetPoint(source.address, source.port, false), SemiDialogID.advSitDatDist, GroupIDHelper.toGroupID(7), TemporaryIDHelper.toTemporaryID(42));
+		assertFalse(probe.equals(key));
+		probe = SessionKeyProbe.of(copy, SemiDialogID.advSitDatDist);
+		assertFalse(probe.equals(key));
+	}
+
+	@Test
+	public void testAddressesAreCompared() throws UnknownHostException {
+		InetPoint ipv4 = new InetPoint(InetAddress.getByName("10.0.0.1").getAddress(), 47561);
+		InetPoint ipv4Other = new InetPoint(InetAddress.getByName("10.0.0.2").getAddress(), 47561);
+		InetPoint ipv6 = new InetPoint(InetAddress.getByName("::a00:1").getAddress(), 47561);
+		SessionKey key = new SessionKey(ipv4, SemiDialogID.vehSitData);
+		assertTrue(key.isMetaSession);
+		assertTrue(key.equals(new SessionKey(new InetPoint(ipv4.address.clone(), ipv4.port), SemiDialogID.vehSitData)));
+		assertFalse(key.equals(new SessionKey(ipv4Other, SemiDialogID.vehSitData)));
+		assertFalse(key.equals(new SessionKey(ipv6, SemiDialogID.vehSitData)));
+		assertFalse(key.equals(new SessionKey(null, SemiDialogID.vehSitData)));
+		assertTrue(new SessionKey(null, SemiDialogID.vehSitData).equals(new SessionKey(null, SemiDialogID.vehSitData)));
+	}
+
+}
@@ -0,0 +1,116 @@
+package gov.usdot.cv.session;
+
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.DataRequest;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.ServiceRequest;
+import gov.usdot.asn1.generated.j2735.semi.VehSitDataMessage;
+import gov.usdot.asn1.j2735.CVSampleMessageBuilder;
+import gov.usdot.cv.common.asn1.GroupIDHelper;
+import gov.usdot.cv.common.asn1.TemporaryIDHelper;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Session lookup benchmark. The legacy benchmarks reproduce the key that was allocated and hashed with
+ * Arrays.deepHashCode over boxed fields for every lookup so it can be compared with the packed key probe.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=gov.usdot.cv.session.SessionMgrBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionMgrBenchmark {
+
+	private static final int SESSION_COUNT = 10000;
+	private static final int PORT = 47561;
+
+	private SessionMgr mgr;
+	private byte[] address;
+	private InetPoint source;
+	private VehSitDataMessage vsd;
+	private SemiDialogID dialogID;
+	private GroupID groupID;
+	private TemporaryID requestID;
+
+	@Setup
+	public void setup() throws Exception {
+		mgr = new SessionMgr();
+		address = InetAddress.getByName("127.0.0.1").getAddress();
+		source = new InetPoint(address, PORT);
+		// other sources that have dialogs in progress
+		for ( int i = 1; i <= SESSION_COUNT; i++ ) {
+			DataRequest rasdr = CVSampleMessageBuilder.buildRSUAdvisorySitDataRequest();
+			mgr.getSession(new InetPoint(address, PORT + i), rasdr, null, null);
+		}
+		DataRequest rasdr = CVSampleMessageBuilder.buildRSUAdvisorySitDataRequest();
+		mgr.getSession(source, rasdr, null, null);
+		dialogID = rasdr.getDialogID();
+		groupID = rasdr.getGroupID();
+		requestID = rasdr.getRequestID();
+		// trust establishment for vehicle situation data so the data messages find the meta session
+		ServiceRequest serviceRequest = CVSampleMessageBuilder.buildServiceRequest(TemporaryIDHelper.toTemporaryID(1), GroupIDHelper.toGroupID(0), SemiDialogID.vehSitData);
+		mgr.getSession(source, serviceRequest, null, null);
+		vsd = CVSampleMessageBuilder.buildVehSitDataMessage();
+	}
+
+	@TearDown
+	public void tearDown() {
+		mgr.dispose();
+	}
+
+	@Benchmark
+	public Session getSessionVehSitData() {
+		return mgr.getSession(source, vsd, null, null);
+	}
+
+	@Benchmark
+	public boolean hasActiveSession() {
+		return mgr.hasActiveSession(source, dialogID, groupID, requestID);
+	}
+
+	@Benchmark
+	public int packedKeyHash() {
+		return SessionKeyProbe.of(new InetPoint(address, PORT), dialogID, groupID, requestID).hashCode();
+	}
+
+	@Benchmark
+	public int legacyKeyHash() {
+		InetPoint point = new InetPoint(address, PORT);
+		return Arrays.deepHashCode(new Object[] {
+				point.port,
+				point.forward,
+				point.address,
+				dialogID.longValue(),
+				TemporaryIDHelper.fromTemporaryID(groupID),
+				TemporaryIDHelper.fromTemporaryID(requestID),
+				false,
+		});
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SessionMgrBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,108 @@
+package gov.usdot.cv.session;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Session store benchmark. The legacy benchmarks reproduce the single map with concurrency level 1 that
+ * indexed every session by both its key and its ID so it can be compared with the striped session store.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=gov.usdot.cv.session.SessionStoreBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class SessionStoreBenchmark {
+
+	private static final int SESSION_COUNT = 100000;
+	private static final int PORT = 1024;
+
+	private Session[] sessions;
+	private SessionStore store;
+	private ConcurrentHashMap<Object, Session> legacy;
+
+	@Setup
+	public void setup() throws Exception {
+		final byte[] address = InetAddress.getByName("127.0.0.1").getAddress();
+		sessions = new Session[SESSION_COUNT];
+		store = new SessionStore(SESSION_COUNT, Runtime.getRuntime().availableProcessors());
+		legacy = new ConcurrentHashMap<Object, Session>(16, 0.9f, 1);
+		for ( int i = 0; i < SESSION_COUNT; i++ ) {
+			// every other session is left out of the indexes so put and remove find work to do
+			sessions[i] = new Session(new SessionKey(new InetPoint(address, PORT + i % 60000, i >= 60000), SemiDialogID.vehSitData));
+			if ( i % 2 == 0 ) {
+				store.put(sessions[i]);
+				legacy.put(sessions[i].getSessionKey(), sessions[i]);
+				legacy.put(sessions[i].getSessionID(), sessions[i]);
+			}
+		}
+	}
+
+	private Session next() {
+		return sessions[ThreadLocalRandom.current().nextInt(SESSION_COUNT)];
+	}
+
+	@Benchmark
+	public Session storeGetByKey() {
+		return store.get(next().getSessionKey());
+	}
+
+	@Benchmark
+	public Session storeGetByID() {
+		return store.get(next().getSessionID());
+	}
+
+	@Benchmark
+	public boolean storePutRemove() {
+		final Session session = next();
+		return store.put(session) == null && store.remove(session);
+	}
+
+	@Benchmark
+	public Session legacyGetByKey() {
+		return legacy.get(next().getSessionKey());
+	}
+
+	@Benchmark
+	public Session legacyGetByID() {
+		return legacy.get(next().getSessionID());
+	}
+
+	@Benchmark
+	public boolean legacyPutRemove() {
+		final Session session = next();
+		final boolean added = legacy.put(session.getSessionKey(), session) == null;
+		legacy.put(session.getSessionID(), session);
+		final boolean removed = legacy.remove(session.getSessionKey(), session);
+		legacy.remove(session.getSessionID(), session);
+		return added && removed;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SessionStoreBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
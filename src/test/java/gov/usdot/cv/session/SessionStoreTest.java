@@ -0,0 +1,94 @@
+package gov.usdot.cv.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class SessionStoreTest {
+
+	private static Session createSession(int port) throws UnknownHostException {
+		InetPoint source = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), port);
+		return new Session(new SessionKey(source, SemiDialogID.vehSitData));
+	}
+
+	@Test
+	public void testPutReplaceRemove() throws UnknownHostException {
+		SessionStore store = new SessionStore(16, 4);
+		assertEquals(4, store.getStripes());
+		Session session = createSession(47561);
+		assertNull(store.put(session));
+		assertEquals(1, store.size());
+		assertSame(session, store.get(session.getSessionKey()));
+		assertSame(session, store.get(session.getSessionID()));
+
+		// a session with the same key replaces the old one in both indexes
+		Session replacement = createSession(47561);
+		assertSame(session, store.put(replacement));
+		assertEquals(1, store.size());
+		assertSame(replacement, store.get(session.getSessionKey()));
+		assertSame(replacement, store.get(replacement.getSessionID()));
+		assertNull(store.get(session.getSessionID()));
+
+		// the replaced session can't remove its replacement
+		assertFalse(store.remove(session));
+		assertEquals(1, store.size());
+
+		assertTrue(store.remove(replacement));
+		assertEquals(0, store.size());
+		assertNull(store.get(replacement.getSessionKey()));
+		assertNull(store.get(replacement.getSessionID()));
+	}
+
+	@Test
+	public void testCountIsExactUnderContention() throws Exception {
+		final SessionStore store = new SessionStore(16, 8);
+		final int threads = 8;
+		final int ports = 64;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for ( int t = 0; t < threads; t++ ) {
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for ( int i = 0; i < 10000; i++ ) {
+							Session session = createSession(1024 + i % ports);
+							store.put(session);
+							if ( i % 3 == 0 )
+								store.remove(session);
+						}
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		start.countDown();
+		for ( Thread worker : workers )
+			worker.join();
+
+		int indexed = 0;
+		for ( Session session : store.values() ) {
+			assertSame(session, store.get(session.getSessionID()));
+			indexed++;
+		}
+		assertEquals(indexed, store.size());
+
+		store.clear();
+		assertEquals(0, store.size());
+	}
+
+}
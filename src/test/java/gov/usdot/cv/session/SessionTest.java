@@ -0,0 +1,57 @@
+package gov.usdot.cv.session;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class SessionTest {
+
+	private static Session createSession(long timeToLive) throws UnknownHostException {
+		InetPoint source = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), 47561);
+		return new Session(new SessionKey(source, SemiDialogID.advSitDatDist), timeToLive);
+	}
+
+	@Test
+	public void testSeqIDs() throws UnknownHostException {
+		Session session = createSession(60*1000);
+		assertFalse(session.hasSeqID(SemiSequenceID.dataReq));
+		assertFalse(session.hasSeqID(SemiSequenceID.data));
+
+		session.putSeqID(SemiSequenceID.dataReq);
+		assertTrue(session.hasSeqID(SemiSequenceID.dataReq));
+		assertFalse(session.hasSeqID(SemiSequenceID.data));
+
+		// repeated sequence IDs are remembered once
+		for ( int i = 0; i < 1000; i++ )
+			session.putSeqID(SemiSequenceID.data);
+		assertTrue(session.hasSeqID(SemiSequenceID.dataReq));
+		assertTrue(session.hasSeqID(SemiSequenceID.data));
+		assertFalse(session.hasSeqID(SemiSequenceID.receipt));
+
+		session.putSeqID(null);
+		assertFalse(session.hasSeqID(null));
+	}
+
+	@Test
+	public void testInactive() throws UnknownHostException, InterruptedException {
+		Session session = createSession(50);
+		assertFalse(session.isInactive());
+		Thread.sleep(100);
+		assertTrue(session.isExpired());
+		assertTrue(session.isInactive());
+		session.touch();
+		assertFalse(session.isInactive());
+		session.close();
+		assertTrue(session.isClosed());
+		assertTrue(session.isInactive());
+	}
+
+}
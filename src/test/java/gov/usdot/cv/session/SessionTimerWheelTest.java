@@ -0,0 +1,92 @@
+package gov.usdot.cv.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SessionTimerWheelTest {
+
+	private final List<Session> expired = new ArrayList<Session>();
+
+	private final SessionTimerWheel.ExpiryListener listener = new SessionTimerWheel.ExpiryListener() {
+		@Override
+		public void expired(Session session) {
+			expired.add(session);
+		}
+	};
+
+	private static Session createSession(int port, long timeToLive) throws UnknownHostException {
+		InetPoint source = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), port);
+		return new Session(new SessionKey(source, SemiDialogID.vehSitData), timeToLive);
+	}
+
+	@Test
+	public void testClosedSessionExpiresOnNextTick() throws UnknownHostException {
+		final long now = System.currentTimeMillis();
+		SessionTimerWheel wheel = new SessionTimerWheel(100, 64, listener, now);
+		Session session = createSession(47561, 60*1000);
+		wheel.schedule(session);
+		wheel.advance(now);
+		assertTrue(expired.isEmpty());
+		assertEquals(1, wheel.size());
+
+		session.close();
+		wheel.advance(now);
+		assertEquals(1, expired.size());
+		assertSame(session, expired.get(0));
+	}
+
+	@Test
+	public void testIdleSessionExpires() throws UnknownHostException, InterruptedException {
+		SessionTimerWheel wheel = new SessionTimerWheel(10, 64, listener, System.currentTimeMillis());
+		Session idle = createSession(47561, 50);
+		Session active = createSession(47562, 50);
+		wheel.schedule(idle);
+		wheel.schedule(active);
+		wheel.advance(System.currentTimeMillis());
+		assertTrue(expired.isEmpty());
+
+		for ( int i = 0; i < 10; i++ ) {
+			Thread.sleep(20);
+			active.touch();
+			wheel.advance(System.currentTimeMillis());
+		}
+		// touched session was moved to a later bucket instead of being expired
+		assertEquals(1, expired.size());
+		assertSame(idle, expired.get(0));
+		assertEquals(1, wheel.size());
+
+		Thread.sleep(100);
+		wheel.advance(System.currentTimeMillis());
+		assertEquals(2, expired.size());
+		assertSame(active, expired.get(1));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testSessionsBeyondOneRotation() throws UnknownHostException {
+		final long now = System.currentTimeMillis();
+		SessionTimerWheel wheel = new SessionTimerWheel(1, 8, listener, now);
+		Session session = createSession(47561, 60*1000);
+		wheel.schedule(session);
+		// many rotations pass before the session expires
+		for ( int i = 0; i <= 100; i++ )
+			wheel.advance(now + i);
+		assertTrue(expired.isEmpty());
+		assertEquals(1, wheel.size());
+
+		wheel.clear();
+		assertEquals(0, wheel.size());
+	}
+
+}
@@ -0,0 +1,56 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+
+	@Test
+	public void testDuplicatesWithinWindowAreDetected() throws UnknownHostException {
+		final InetAddress address = InetAddress.getByName("127.0.0.1");
+		DuplicateFilter filter = new DuplicateFilter(60000, 1024);
+		byte[] datagram = new byte[] { 0x10, 0x20, 0x30, 0x40 };
+		assertFalse(filter.isDuplicate(new PacketView(datagram), address, 46751));
+		assertTrue(filter.isDuplicate(new PacketView(datagram.clone()), address, 46751));
+		// another sender port is not a duplicate while the same bytes at another offset are
+		assertFalse(filter.isDuplicate(new PacketView(datagram), address, 46752));
+		assertTrue(filter.isDuplicate(new PacketView(new byte[] { 0, 0x10, 0x20, 0x30, 0x40 }, 1, 4), address, 46752));
+		assertFalse(filter.isDuplicate(new PacketView(datagram, 0, 3), address, 46751));
+		assertEquals(2, filter.getDuplicateCount());
+	}
+
+	@Test
+	public void testDuplicatesExpireAfterTwoWindows() throws UnknownHostException, InterruptedException {
+		final InetAddress address = InetAddress.getByName("127.0.0.1");
+		DuplicateFilter filter = new DuplicateFilter(20, 1024);
+		byte[] datagram = new byte[] { 1, 2, 3 };
+		assertFalse(filter.isDuplicate(new PacketView(datagram), address, 46751));
+		Thread.sleep(50);
+		assertFalse(filter.isDuplicate(new PacketView(datagram), address, 46751));
+	}
+
+	@Test
+	public void testRotatedTablesAreReused() throws UnknownHostException, InterruptedException {
+		final InetAddress address = InetAddress.getByName("127.0.0.1");
+		DuplicateFilter filter = new DuplicateFilter(100, 1024);
+		byte[] first = new byte[] { 1, 2, 3 };
+		byte[] second = new byte[] { 4, 5, 6 };
+		assertFalse(filter.isDuplicate(new PacketView(first), address, 46751));
+		Thread.sleep(120);
+		// one window later the first datagram is still remembered by the previous table
+		assertTrue(filter.isDuplicate(new PacketView(first), address, 46751));
+		assertFalse(filter.isDuplicate(new PacketView(second), address, 46751));
+		Thread.sleep(120);
+		// the table that held the first datagram has been cleared and reused for the current window
+		assertTrue(filter.isDuplicate(new PacketView(second), address, 46751));
+		assertFalse(filter.isDuplicate(new PacketView(first), address, 46751));
+		assertTrue(filter.isDuplicate(new PacketView(first), address, 46751));
+	}
+
+}
@@ -0,0 +1,44 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class EncodeBufferTest {
+
+	@Test
+	public void testBufferIsReusedByOwningThread() {
+		EncodeBuffer buffer = EncodeBuffer.get();
+		buffer.write(new byte[] { 1, 2, 3 }, 0, 3);
+		assertSame(buffer, EncodeBuffer.get());
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void testByteBufferViewIsNotCopied() {
+		EncodeBuffer buffer = EncodeBuffer.get();
+		byte[] bytes = new byte[2000];
+		for ( int i = 0; i < bytes.length; i++ )
+			bytes[i] = (byte)i;
+		buffer.write(bytes, 0, bytes.length);
+		ByteBuffer view = buffer.toByteBuffer();
+		assertEquals(bytes.length, view.remaining());
+		assertArrayEquals(bytes, EncodeBuffer.toArray(view));
+		assertEquals(0, view.position());
+	}
+
+	@Test
+	public void testToArray() {
+		byte[] bytes = new byte[] { 1, 2, 3, 4 };
+		assertSame(bytes, EncodeBuffer.toArray(ByteBuffer.wrap(bytes)));
+		byte[] part = EncodeBuffer.toArray(ByteBuffer.wrap(bytes, 1, 2));
+		assertNotSame(bytes, part);
+		assertArrayEquals(new byte[] { 2, 3 }, part);
+	}
+
+}
@@ -0,0 +1,112 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class IngestStageTest {
+
+	@Test
+	public void testItemsWithSameAffinityStayInOrder() throws InterruptedException {
+		final int count = 1000;
+		final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(count);
+		IngestStage<Integer> stage = new IngestStage<Integer>("test", 4, 16, new IngestStage.HandlerFactory<Integer>() {
+			public IngestStage.Handler<Integer> createHandler() {
+				return new IngestStage.Handler<Integer>() {
+					public void handle(Integer item) {
+						handled.add(item);
+						done.countDown();
+					}
+				};
+			}
+		});
+		stage.start();
+		try {
+			for ( int i = 0; i < count; i++ )
+				stage.submit(i, 42);
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			// the worker counts an item after its handler returns
+			for ( long deadline = System.currentTimeMillis() + 10000; stage.getProcessedCount() < count && System.currentTimeMillis() < deadline; )
+				Thread.sleep(1);
+		} finally {
+			stage.stop();
+		}
+		for ( int i = 0; i < count; i++ )
+			assertEquals(i, handled.get(i).intValue());
+		assertEquals(count, stage.getProcessedCount());
+		assertEquals(0, stage.getFailedCount());
+	}
+
+	@Test
+	public void testFullQueueBlocksSubmitter() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(4);
+		IngestStage<Integer> stage = new IngestStage<Integer>("test", 1, 2, new IngestStage.HandlerFactory<Integer>() {
+			public IngestStage.Handler<Integer> createHandler() {
+				return new IngestStage.Handler<Integer>() {
+					public void handle(Integer item) throws InterruptedException {
+						release.await();
+						done.countDown();
+					}
+				};
+			}
+		});
+		stage.start();
+		try {
+			// one item is held by the worker, two fill the queue and the last one has to wait
+			Thread releaser = new Thread(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException ignored) {
+					}
+					release.countDown();
+				}
+			});
+			releaser.start();
+			for ( int i = 0; i < 4; i++ )
+				stage.submit(i, 0);
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertTrue(stage.getBackpressureCount() >= 1);
+		} finally {
+			stage.stop();
+		}
+	}
+
+	@Test
+	public void testFailedItemsAreNotCountedAsProcessed() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(4);
+		IngestStage<Integer> stage = new IngestStage<Integer>("test", 1, 8, new IngestStage.HandlerFactory<Integer>() {
+			public IngestStage.Handler<Integer> createHandler() {
+				return new IngestStage.Handler<Integer>() {
+					public void handle(Integer item) {
+						done.countDown();
+						if ( item % 2 != 0 )
+							throw new IllegalArgumentException("odd item");
+					}
+				};
+			}
+		});
+		stage.start();
+		try {
+			for ( int i = 0; i < 4; i++ )
+				stage.submit(i, 0);
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			for ( long deadline = System.currentTimeMillis() + 10000; stage.getProcessedCount() + stage.getFailedCount() < 4 && System.currentTimeMillis() < deadline; )
+				Thread.sleep(1);
+		} finally {
+			stage.stop();
+		}
+		assertEquals(2, stage.getProcessedCount());
+		assertEquals(2, stage.getFailedCount());
+	}
+
+}
@@ -0,0 +1,64 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.asn1.generated.j2735.semi.DataAcceptance;
+import gov.usdot.asn1.generated.j2735.semi.ServiceRequest;
+import gov.usdot.asn1.generated.j2735.semi.VehSitDataMessage;
+
+import org.junit.Test;
+
+public class LoadShedderTest {
+
+	private static final SemiHeader vsd = new SemiHeader(VehSitDataMessage.class, null, null, null, null);
+	private static final SemiHeader serviceRequest = new SemiHeader(ServiceRequest.class, null, null, null, null);
+	private static final SemiHeader dataAcceptance = new SemiHeader(DataAcceptance.class, null, null, null, null);
+
+	private static class Queue implements LoadShedder.Backlog {
+		volatile int depth = 0;
+
+		public int getQueueDepth() {
+			return depth;
+		}
+	}
+
+	@Test
+	public void testSheddingPolicy() throws InterruptedException {
+		Queue queue = new Queue();
+		LoadShedder shedder = new LoadShedder(10, 0);
+		shedder.addBacklog(queue);
+		
+		queue.depth = 5;
+		assertEquals(LoadShedder.LEVEL_NORMAL, shedder.getLevel());
+		assertFalse(shedder.shouldShed(vsd));
+		
+		Thread.sleep(150);
+		queue.depth = 15;
+		assertEquals(LoadShedder.LEVEL_SHED_BULK, shedder.getLevel());
+		assertTrue(shedder.shouldShed(vsd));
+		assertFalse(shedder.shouldShed(serviceRequest));
+		assertFalse(shedder.shouldShed(dataAcceptance));
+		
+		Thread.sleep(150);
+		queue.depth = 25;
+		assertEquals(LoadShedder.LEVEL_SHED_NEW_DIALOGS, shedder.getLevel());
+		assertTrue(shedder.shouldShed(vsd));
+		assertTrue(shedder.shouldShed(serviceRequest));
+		assertFalse(shedder.shouldShed(dataAcceptance));
+		assertFalse(shedder.shouldShed(null));
+		
+		assertEquals(2, shedder.getBulkShedCount());
+		assertEquals(1, shedder.getDialogShedCount());
+	}
+
+	@Test
+	public void testLatencyThreshold() {
+		LoadShedder shedder = new LoadShedder(0, 10);
+		for ( int i = 0; i < 100; i++ )
+			shedder.recordLatency(15*1000000L);
+		assertEquals(LoadShedder.LEVEL_SHED_BULK, shedder.getLevel());
+	}
+
+}
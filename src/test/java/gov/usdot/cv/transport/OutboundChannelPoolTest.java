@@ -0,0 +1,70 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.cv.common.inet.InetPoint;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class OutboundChannelPoolTest {
+
+	@Test
+	public void testSendDirectly() throws Exception {
+		DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		socket.setSoTimeout(3000);
+		OutboundChannelPool pool = new OutboundChannelPool(2, null, 0);
+		try {
+			pool.open();
+			assertFalse(pool.isForwarding());
+			InetPoint destination = new InetPoint(InetAddress.getLoopbackAddress().getAddress(), socket.getLocalPort());
+			for ( int i = 0; i < 3; i++ ) {
+				byte[] payload = new byte[] { 1, 2, 3, (byte)i };
+				assertTrue(pool.send(destination, payload));
+				DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+				socket.receive(packet);
+				assertArrayEquals(payload, Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength()));
+			}
+			assertEquals(3, pool.getSentCount());
+			assertEquals(0, pool.getDroppedCount());
+		} finally {
+			pool.close();
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testBatchedSend() throws Exception {
+		DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		socket.setSoTimeout(3000);
+		OutboundChannelPool pool = new OutboundChannelPool(1, null, 0, 20, 8);
+		try {
+			pool.open();
+			InetPoint destination = new InetPoint(InetAddress.getLoopbackAddress().getAddress(), socket.getLocalPort());
+			for ( int i = 0; i < 5; i++ )
+				assertTrue(pool.send(destination, new byte[] { (byte)i }));
+			for ( int i = 0; i < 5; i++ ) {
+				DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+				socket.receive(packet);
+				assertEquals(1, packet.getLength());
+				assertEquals(i, packet.getData()[packet.getOffset()]);
+			}
+			// the flush is counted after its datagrams are sent
+			for ( long deadline = System.currentTimeMillis() + 3000; pool.getFlushCount() < 1 && System.currentTimeMillis() < deadline; )
+				Thread.sleep(10);
+			assertTrue(pool.getFlushCount() >= 1);
+			assertEquals(0, pool.getDroppedCount());
+		} finally {
+			pool.close();
+			socket.close();
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+public class PacketViewTest {
+
+	@Test
+	public void testExactView() {
+		byte[] data = new byte[] { 1, 2, 3, 4 };
+		PacketView view = new PacketView(data);
+		assertTrue(view.isExact());
+		assertSame(data, view.toArray());		// no copy for a view that spans the whole buffer
+	}
+
+	@Test
+	public void testViewWithOffset() {
+		byte[] data = new byte[] { 9, 9, 1, 2, 3, 9 };
+		PacketView view = new PacketView(data, 2, 3);
+		assertFalse(view.isExact());
+		assertEquals(3, view.getLength());
+		assertEquals(1, view.get(0));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, view.toArray());
+		assertArrayEquals(new byte[] { 2, 3 }, view.slice(1, 2).toArray());
+	}
+
+	@Test
+	public void testDigestWithOffset() throws NoSuchAlgorithmException {
+		MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		byte[] data = new byte[] { 9, 9, 1, 2, 3, 9 };
+		byte[] expected = messageDigest.digest(new byte[] { 1, 2, 3 });
+		assertArrayEquals(expected, new PacketView(data, 2, 3).digest(messageDigest));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidView() {
+		new PacketView(new byte[4], 2, 3);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testInvalidSlice() {
+		new PacketView(new byte[4], 1, 3).slice(1, 3);
+	}
+
+}
@@ -0,0 +1,58 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RecipientCacheTest {
+
+	private static final byte[] certID8 = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	@Test
+	public void testUnresolvableRecipient() {
+		RecipientCache cache = new RecipientCache();
+		assertFalse(cache.isUnresolvable(certID8));
+		assertTrue(cache.markUnresolvable(certID8));
+		assertTrue(cache.isUnresolvable(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+		assertFalse(cache.isUnresolvable(new byte[] { 1, 2, 3, 4, 5, 6, 7, 9 }));
+		assertFalse(cache.isUnresolvable(null));
+		assertEquals(1, cache.getSkippedCount());
+		cache.markResolved(certID8);
+		assertFalse(cache.isUnresolvable(certID8));
+	}
+
+	@Test
+	public void testResolvedRecipient() {
+		RecipientCache cache = new RecipientCache();
+		cache.markResolved(certID8);
+		assertTrue(cache.isResolved(certID8));
+		// a failure for a recipient whose key was resolved is not caused by the key lookup
+		assertFalse(cache.markUnresolvable(certID8));
+		assertFalse(cache.isUnresolvable(certID8));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getResolvedSize());
+	}
+
+	@Test
+	public void testMaxSize() {
+		RecipientCache cache = new RecipientCache(1, RecipientCache.DEFAULT_TIME_TO_LIVE);
+		assertTrue(cache.markUnresolvable(certID8));
+		assertFalse(cache.markUnresolvable(new byte[] { 1, 2, 3, 4, 5, 6, 7, 9 }));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException {
+		RecipientCache cache = new RecipientCache(16, 50);
+		cache.markUnresolvable(certID8);
+		assertTrue(cache.isUnresolvable(certID8));
+		cache.markResolved(new byte[] { 1, 2, 3, 4, 5, 6, 7, 9 });
+		Thread.sleep(100);
+		assertFalse(cache.isUnresolvable(certID8));
+		assertFalse(cache.isResolved(new byte[] { 1, 2, 3, 4, 5, 6, 7, 9 }));
+		assertEquals(0, cache.size());
+	}
+
+}
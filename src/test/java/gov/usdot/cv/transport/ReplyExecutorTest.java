@@ -0,0 +1,91 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReplyExecutorTest {
+
+	@Test
+	public void testRepliesToSameDestinationStayInOrder() throws UnknownHostException, InterruptedException {
+		final int count = 500;
+		final InetPoint first = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), 46751);
+		final InetPoint second = new InetPoint(InetAddress.getByName("127.0.0.2").getAddress(), 46752);
+		final List<Integer> firstReplies = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Integer> secondReplies = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(2*count);
+		ReplyExecutor executor = new ReplyExecutor(4, 8);
+		executor.start();
+		try {
+			for ( int i = 0; i < count; i++ ) {
+				executor.execute(first, new Record(firstReplies, i, done));
+				executor.execute(second, new Record(secondReplies, i, done));
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			// the reply thread counts a reply after it has run
+			for ( long deadline = System.currentTimeMillis() + 10000; executor.getCompletedCount() < 2*count && System.currentTimeMillis() < deadline; )
+				Thread.sleep(1);
+		} finally {
+			executor.stop();
+		}
+		for ( int i = 0; i < count; i++ ) {
+			assertEquals(i, firstReplies.get(i).intValue());
+			assertEquals(i, secondReplies.get(i).intValue());
+		}
+		assertEquals(2*count, executor.getCompletedCount());
+		assertEquals(0, executor.getFailedCount());
+	}
+
+	@Test
+	public void testStopSendsQueuedReplies() throws UnknownHostException, InterruptedException {
+		final InetPoint destination = new InetPoint(InetAddress.getByName("127.0.0.1").getAddress(), 46751);
+		final List<Integer> replies = Collections.synchronizedList(new ArrayList<Integer>());
+		ReplyExecutor executor = new ReplyExecutor(1, 8);
+		executor.start();
+		for ( int i = 0; i < 5; i++ ) {
+			final int reply = i;
+			executor.execute(destination, new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException ignored) {
+					}
+					replies.add(reply);
+				}
+			});
+		}
+		executor.stop();
+		// the last reply may still be running when the queue is empty
+		assertTrue(replies.size() >= 4);
+		assertEquals(0, executor.getQueueDepth());
+	}
+
+	private static class Record implements Runnable {
+		private final List<Integer> replies;
+		private final int reply;
+		private final CountDownLatch done;
+
+		Record(List<Integer> replies, int reply, CountDownLatch done) {
+			this.replies = replies;
+			this.reply = reply;
+			this.done = done;
+		}
+
+		public void run() {
+			replies.add(reply);
+			done.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.J2735;
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.DataConfirmation;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.asn1.generated.j2735.semi.Sha256Hash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.oss.asn1.Coder;
+
+public class SemiHeaderClassifierTest {
+
+	private static Coder coder;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		J2735.initialize();
+		coder = J2735.getPERUnalignedCoder();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		J2735.deinitialize();
+	}
+
+	@Test
+	public void testReadBits() {
+		PacketView view = new PacketView(new byte[] { (byte)0xA5, (byte)0x0F, (byte)0xF0 });
+		assertEquals(0x5, SemiHeaderClassifier.readBits(view, 0, 3));
+		assertEquals(0xA50F, SemiHeaderClassifier.readBits(view, 0, 16));
+		assertEquals(0x1F, SemiHeaderClassifier.readBits(view, 12, 5));
+		assertArrayEquals(new byte[] { (byte)0x50, (byte)0xFF }, SemiHeaderClassifier.readBytes(view, 4, 2));
+	}
+
+	@Test
+	public void testPeekLearnedLayout() throws Exception {
+		SemiHeaderClassifier classifier = new SemiHeaderClassifier();
+		
+		DataConfirmation first = createDataConfirmation(0x11223344, 0x55667788);
+		PacketView firstPayload = encode(first);
+		assertNull(classifier.peek(firstPayload));
+		classifier.learn(firstPayload, first);
+		assertEquals(1, classifier.getLayoutCount());
+		
+		// the layout is only used once enough decoded messages have confirmed it
+		for ( int i = 1; i < SemiHeaderClassifier.CONFIRMATIONS; i++ ) {
+			assertNull(classifier.peek(firstPayload));
+			DataConfirmation next = createDataConfirmation(0x11223344 + i, 0x55667788 + i);
+			classifier.learn(encode(next), next);
+		}
+		assertEquals(1, classifier.getLayoutCount());
+		
+		PacketView secondPayload = encode(createDataConfirmation(0x0A0B0C0D, 0x01020304));
+		SemiHeader header = classifier.peek(secondPayload);
+		assertNotNull(header);
+		assertTrue(header.type == DataConfirmation.class);
+		assertTrue(header.isSessionRequired());
+		assertEquals(SemiDialogID.advSitDataDep, header.dialogID);
+		assertEquals(SemiSequenceID.dataConf, header.seqID);
+		assertArrayEquals(new byte[] { 0x0A, 0x0B, 0x0C, 0x0D }, header.groupID.byteArrayValue());
+		assertArrayEquals(new byte[] { 0x01, 0x02, 0x03, 0x04 }, header.requestID.byteArrayValue());
+	}
+
+	@Test
+	public void testPeekUnknownLayout() {
+		SemiHeaderClassifier classifier = new SemiHeaderClassifier();
+		assertNull(classifier.peek(new PacketView(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 })));
+		assertNull(classifier.peek(new PacketView(new byte[] { 1 })));
+	}
+
+	private static DataConfirmation createDataConfirmation(int groupID, int requestID) {
+		return new DataConfirmation(SemiDialogID.advSitDataDep, SemiSequenceID.dataConf, new GroupID(toBytes(groupID)), new TemporaryID(toBytes(requestID)), new Sha256Hash(new byte[32]));
+	}
+
+	private static PacketView encode(DataConfirmation pdu) throws Exception {
+		ByteArrayOutputStream sink = new ByteArrayOutputStream();
+		coder.encode(pdu, sink);
+		return new PacketView(sink.toByteArray());
+	}
+
+	private static byte[] toBytes(int value) {
+		return new byte[] { (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value };
+	}
+
+}
@@ -0,0 +1,71 @@
+package gov.usdot.cv.transport;
+
+import gov.usdot.asn1.generated.j2735.J2735;
+import gov.usdot.asn1.generated.j2735.dsrc.DFullTime;
+import gov.usdot.asn1.generated.j2735.dsrc.TemporaryID;
+import gov.usdot.asn1.generated.j2735.semi.GroupID;
+import gov.usdot.asn1.generated.j2735.semi.SemiDialogID;
+import gov.usdot.asn1.generated.j2735.semi.SemiSequenceID;
+import gov.usdot.asn1.generated.j2735.semi.ServiceResponse;
+import gov.usdot.asn1.generated.j2735.semi.Sha256Hash;
+import gov.usdot.asn1.j2735.J2735Util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.oss.asn1.Coder;
+
+public class ServiceResponseTemplateTest {
+
+	private static Coder coder;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		J2735.initialize();
+		coder = J2735.getPERUnalignedCoder();
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		J2735.deinitialize();
+	}
+
+	@Test
+	public void testFindAndPatch() {
+		byte[] data = new byte[] { 0x00, (byte)0xAB, (byte)0xCD, 0x00 };
+		// 0xABCD shifted by 4 bits
+		byte[] shifted = new byte[] { 0x0A, (byte)0xBC, (byte)0xD0, 0x00 };
+		assertEquals(8, ServiceResponseTemplate.find(data, new byte[] { (byte)0xAB, (byte)0xCD }));
+		assertEquals(4, ServiceResponseTemplate.find(shifted, new byte[] { (byte)0xAB, (byte)0xCD }));
+		assertEquals(-1, ServiceResponseTemplate.find(data, new byte[] { 0x00 }));	// not unique
+		ServiceResponseTemplate.patch(shifted, 4, new byte[] { 0x12, 0x34 });
+		assertArrayEquals(new byte[] { 0x01, 0x23, 0x40, 0x00 }, shifted);
+	}
+
+	@Test
+	public void testTemplateMatchesEncoder() throws Exception {
+		ServiceRegion serviceRegion = new ServiceRegion();
+		ServiceResponseTemplate template = new ServiceResponseTemplate(serviceRegion);
+		DFullTime expiration = J2735Util.expireInMin(1);
+		for ( int i = 0; i < 4; i++ ) {
+			GroupID groupID = new GroupID(new byte[] { 0, 0, 0, (byte)i });
+			TemporaryID requestID = J2735Util.createTemporaryID();
+			byte[] hash = new byte[32];
+			hash[i] = (byte)0xff;
+			byte[] patched = template.encode(coder, SemiDialogID.advSitDataDep, groupID, requestID, expiration, hash);
+			assertNotNull(patched);
+			ServiceResponse response = new ServiceResponse(SemiDialogID.advSitDataDep, SemiSequenceID.svcResp, groupID, requestID, expiration, template.getGeoRegion(), new Sha256Hash(hash));
+			ByteArrayOutputStream sink = new ByteArrayOutputStream();
+			coder.encode(response, sink);
+			assertArrayEquals(sink.toByteArray(), patched);
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package gov.usdot.cv.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usdot.cv.common.inet.InetPoint;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class TokenBucketTableTest {
+
+	@Test
+	public void testBurstIsLimited() {
+		TokenBucketTable table = new TokenBucketTable(1024);
+		for ( int i = 0; i < 10; i++ )
+			assertTrue(table.tryAcquire(42, 1, 10));
+		assertFalse(table.tryAcquire(42, 1, 10));
+		// other keys have their own buckets
+		assertTrue(table.tryAcquire(43, 1, 10));
+	}
+
+	@Test
+	public void testBucketIsRefilled() throws InterruptedException {
+		TokenBucketTable table = new TokenBucketTable(16);
+		for ( int i = 0; i < 5; i++ )
+			assertTrue(table.tryAcquire(7, 100, 5));
+		assertFalse(table.tryAcquire(7, 100, 5));
+		Thread.sleep(50);
+		assertTrue(table.tryAcquire(7, 100, 5));
+	}
+
+	@Test
+	public void testSourceLimitIgnoresPort() throws UnknownHostException {
+		final byte[] address = InetAddress.getByName("127.0.0.1").getAddress();
+		AdmissionControl admission = new AdmissionControl(1024, 1, 3, null);
+		for ( int i = 0; i < 3; i++ )
+			assertTrue(admission.admit(new InetPoint(address, 46751 + i)));
+		assertFalse(admission.admit(new InetPoint(address, 46760)));
+		assertEquals(1, admission.getSourceDropCount());
+	}
+
+}